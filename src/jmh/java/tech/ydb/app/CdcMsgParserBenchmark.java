@@ -0,0 +1,225 @@
+package tech.ydb.app;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tech.ydb.table.values.DecimalType;
+import tech.ydb.table.values.PrimitiveType;
+import tech.ydb.table.values.StructType;
+import tech.ydb.table.values.Type;
+
+/**
+ * Parsing of cdc message and converting of it to the row of batch.
+ *
+ * @author Aleksandr Gorshenin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CdcMsgParserBenchmark {
+    private static final int MESSAGES_COUNT = 1024; // must be power of two
+
+    @Param({ "narrow", "wide", "types" })
+    public String shape;
+
+    @Param({ "update", "newImage", "erase" })
+    public String change;
+
+    private CdcMsgParser parser;
+    private byte[][] messages;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        List<Column> columns = columns(shape);
+        List<String> keys = List.of("id", "session");
+
+        List<String> names = new ArrayList<>(List.of("id", "session"));
+        List<Type> types = new ArrayList<>(List.of(PrimitiveType.Uint64, PrimitiveType.Text));
+        for (Column column: columns) {
+            names.add(column.name);
+            types.add(column.type);
+        }
+
+        StructType updateType = StructType.ofOwn(names.toArray(new String[0]), types.toArray(new Type[0]));
+        StructType deleteType = StructType.of("id", PrimitiveType.Uint64, "session", PrimitiveType.Text);
+
+        XmlConfig.Cdc cdc = new XmlConfig.Cdc();
+        parser = new CdcMsgParser(
+                YqlQuery.executeYql("benchmark", keys, "$rows", updateType, cdc),
+                YqlQuery.executeYql("benchmark", keys, "$rows", deleteType, cdc)
+        );
+
+        messages = new byte[MESSAGES_COUNT][];
+        for (int idx = 0; idx < MESSAGES_COUNT; idx++) {
+            messages[idx] = message(change, columns, idx).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public Object parseJsonMessage() throws IOException {
+        byte[] msg = messages[next++ & (MESSAGES_COUNT - 1)];
+        YqlQuery query = parser.parseJsonMessage(msg);
+        if (query.isFull()) {
+            return query.takeBatch();
+        }
+        return query;
+    }
+
+    private static String message(String change, List<Column> columns, int idx) {
+        StringBuilder sb = new StringBuilder("{");
+        switch (change) {
+            case "erase":
+                sb.append("\"erase\":{},");
+                break;
+            case "newImage":
+                sb.append("\"update\":{},\"newImage\":");
+                appendColumns(sb, columns, idx);
+                sb.append(",");
+                break;
+            case "update":
+            default:
+                sb.append("\"update\":");
+                appendColumns(sb, columns, idx);
+                sb.append(",");
+                break;
+        }
+
+        sb.append("\"key\":[").append(1000000L + idx).append(",\"session-").append(idx % 97).append("\"],");
+        sb.append("\"ts\":[").append(1700000000000L + idx).append(",").append(idx).append("]}");
+        return sb.toString();
+    }
+
+    private static void appendColumns(StringBuilder sb, List<Column> columns, int idx) {
+        sb.append("{");
+        for (int col = 0; col < columns.size(); col++) {
+            Column column = columns.get(col);
+            if (col > 0) {
+                sb.append(",");
+            }
+            sb.append("\"").append(column.name).append("\":");
+            // every third optional value is null
+            if (column.type.getKind() == Type.Kind.OPTIONAL && (idx + col) % 3 == 0) {
+                sb.append("null");
+            } else {
+                sb.append(jsonValue(column.primitive, idx + col));
+            }
+        }
+        sb.append("}");
+    }
+
+    private static List<Column> columns(String shape) {
+        List<Column> columns = new ArrayList<>();
+        switch (shape) {
+            case "narrow":
+                columns.add(new Column("name", PrimitiveType.Text, true));
+                columns.add(new Column("price", PrimitiveType.Double, false));
+                columns.add(new Column("amount", PrimitiveType.Int32, true));
+                break;
+            case "wide":
+                PrimitiveType[] wide = new PrimitiveType[] {
+                    PrimitiveType.Text, PrimitiveType.Int64, PrimitiveType.Double, PrimitiveType.Timestamp,
+                    PrimitiveType.Bool, PrimitiveType.Uint32, PrimitiveType.Json, PrimitiveType.Bytes,
+                };
+                for (int idx = 0; idx < 64; idx++) {
+                    columns.add(new Column("column_" + idx, wide[idx % wide.length], idx % 2 == 0));
+                }
+                break;
+            case "types":
+            default:
+                PrimitiveType[] all = new PrimitiveType[] {
+                    PrimitiveType.Bool,
+                    PrimitiveType.Int8, PrimitiveType.Int16, PrimitiveType.Int32, PrimitiveType.Int64,
+                    PrimitiveType.Uint8, PrimitiveType.Uint16, PrimitiveType.Uint32, PrimitiveType.Uint64,
+                    PrimitiveType.Float, PrimitiveType.Double,
+                    PrimitiveType.Text, PrimitiveType.Json, PrimitiveType.Bytes, PrimitiveType.JsonDocument,
+                    PrimitiveType.Uuid, PrimitiveType.Date, PrimitiveType.Datetime, PrimitiveType.Timestamp,
+                    PrimitiveType.Interval,
+                };
+                for (PrimitiveType type: all) {
+                    columns.add(new Column("c_" + type.name(), type, false));
+                    columns.add(new Column("o_" + type.name(), type, true));
+                }
+                columns.add(new Column("c_Decimal", DecimalType.getDefault(), false));
+                columns.add(new Column("o_Decimal", DecimalType.getDefault().makeOptional(), true));
+                break;
+        }
+        return columns;
+    }
+
+    private static String jsonValue(PrimitiveType type, int idx) {
+        if (type == null) { // decimal
+            return "\"" + idx + ".125000000\"";
+        }
+
+        switch (type) {
+            case Bool:
+                return idx % 2 == 0 ? "true" : "false";
+            case Int8:
+            case Uint8:
+                return String.valueOf(idx % 100);
+            case Int16:
+            case Uint16:
+                return String.valueOf(idx % 30000);
+            case Int32:
+            case Uint32:
+            case Interval:
+                return String.valueOf(idx * 1000);
+            case Int64:
+                return String.valueOf(-1000000000000L * idx);
+            case Uint64:
+                return idx % 2 == 0 ? "18446744073709551615" : String.valueOf(1000000000000L * idx);
+            case Float:
+            case Double:
+                return String.valueOf(idx * 1.25d);
+            case Json:
+            case JsonDocument:
+                return "{\"id\":" + idx + ",\"tags\":[\"a\",\"b\"],\"nested\":{\"value\":" + idx + ".5}}";
+            case Bytes:
+                return "\"" + Base64.getEncoder().encodeToString(("bytes-value-" + idx).getBytes()) + "\"";
+            case Uuid:
+                return "\"" + new UUID(idx, idx * 31L) + "\"";
+            case Date:
+                return "\"2024-01-" + String.format("%02d", 1 + idx % 28) + "T00:00:00.000000Z\"";
+            case Datetime:
+                return "\"2024-01-" + String.format("%02d", 1 + idx % 28) + "T10:20:30.000000Z\"";
+            case Timestamp:
+                return "\"2024-01-" + String.format("%02d", 1 + idx % 28) + "T10:20:30.123456Z\"";
+            case Text:
+            default:
+                return "\"text value with some length #" + idx + "\"";
+        }
+    }
+
+    private static class Column {
+        private final String name;
+        private final Type type;
+        private final PrimitiveType primitive;
+
+        Column(String name, Type type, boolean optional) {
+            this.name = name;
+            this.type = optional && type.getKind() != Type.Kind.OPTIONAL ? type.makeOptional() : type;
+            this.primitive = type instanceof PrimitiveType ? (PrimitiveType) type : null;
+        }
+    }
+}
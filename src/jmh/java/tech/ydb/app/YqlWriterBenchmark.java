@@ -0,0 +1,166 @@
+package tech.ydb.app;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import ch.qos.logback.classic.Level;
+import com.google.protobuf.Timestamp;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.StandardEnvironment;
+
+import tech.ydb.proto.topic.YdbTopic;
+import tech.ydb.topic.read.Message;
+import tech.ydb.topic.read.impl.BatchMeta;
+import tech.ydb.topic.read.impl.MessageImpl;
+import tech.ydb.topic.read.impl.OffsetsRangeImpl;
+import tech.ydb.topic.read.impl.PartitionSessionImpl;
+
+/**
+ * Throughput of hand-off of messages from the reader thread to the writer threads. Messages are parsed by writers
+ * and skipped without execution, so the benchmark doesn't need the YDB cluster.
+ *
+ * @author Aleksandr Gorshenin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class YqlWriterBenchmark {
+    private static final int MESSAGES_COUNT = 1024; // must be power of two
+    private static final int PARTITIONS_COUNT = 4;
+
+    @Param({ "1", "4" })
+    public int threadsCount;
+
+    @Param({ "partition", "key" })
+    public String routing;
+
+    private YdbService ydb;
+    private YqlWriter writer;
+    private PartitionSessionImpl[] partitions;
+    private BatchMeta meta;
+    private Instant now;
+    private byte[][] messages;
+
+    @Setup
+    public void setup() {
+        Logger root = LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+        if (root instanceof ch.qos.logback.classic.Logger) {
+            ((ch.qos.logback.classic.Logger) root).setLevel(Level.ERROR);
+        }
+
+        XmlConfig.Cdc cdc = new XmlConfig.Cdc() {
+            @Override
+            public String getChangefeed() {
+                return "benchmark/changefeed";
+            }
+
+            @Override
+            public String getConsumer() {
+                return "benchmark";
+            }
+
+            @Override
+            public int getThreadsCount() {
+                return threadsCount;
+            }
+
+            @Override
+            public String getRouting() {
+                return routing;
+            }
+
+            @Override
+            public boolean isKeyRouting() {
+                return "key".equals(routing);
+            }
+        };
+
+        List<String> keys = List.of("id");
+        Supplier<YqlQuery> skip = YqlQuery.skipMessages("update", "updateQueryId", keys, cdc);
+        Supplier<CdcMsgParser> parser = () -> new CdcMsgParser(skip, skip);
+
+        // connection is initialized asynchronously and isn't used by skipped messages
+        ydb = new YdbService(new StandardEnvironment());
+        writer = new YqlWriter(ydb, parser, cdc, new SimpleMeterRegistry());
+
+        partitions = new PartitionSessionImpl[PARTITIONS_COUNT];
+        for (int idx = 0; idx < PARTITIONS_COUNT; idx++) {
+            partitions[idx] = PartitionSessionImpl.newBuilder()
+                    .setId(idx)
+                    .setPartitionId(idx)
+                    .setTopicPath("benchmark")
+                    .setFullId("benchmark-" + idx)
+                    .setConsumerName("benchmark")
+                    .setPartitionOffsets(new OffsetsRangeImpl(0, Long.MAX_VALUE))
+                    .setDecompressionExecutor(Runnable::run)
+                    .setCommitFunction(ranges -> { }) // commits are ignored
+                    .build();
+        }
+
+        now = Instant.now();
+        meta = new BatchMeta(YdbTopic.StreamReadMessage.ReadResponse.Batch.newBuilder()
+                .setCodec(1) // RAW
+                .setWrittenAt(Timestamp.newBuilder().setSeconds(now.getEpochSecond()).build())
+                .build());
+
+        messages = new byte[MESSAGES_COUNT][];
+        for (int idx = 0; idx < MESSAGES_COUNT; idx++) {
+            String json = "{\"update\":{\"name\":\"name " + idx + "\",\"price\":" + idx + ".5},"
+                    + "\"key\":[" + idx + "],\"ts\":[" + idx + ",0]}";
+            messages[idx] = json.getBytes(StandardCharsets.UTF_8);
+        }
+
+        writer.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        writer.close();
+        ydb.close();
+    }
+
+    /**
+     * Offsets of messages must grow as in real partition, single producer is the SDK handler thread.
+     */
+    @State(Scope.Thread)
+    public static class Producer {
+        private long offset = 0;
+    }
+
+    @Benchmark
+    public void addMessage(Producer producer) {
+        long offset = producer.offset++;
+        int partition = (int) (offset % PARTITIONS_COUNT);
+        Message msg = new MessageImpl.Builder()
+                .setData(messages[(int) (offset & (MESSAGES_COUNT - 1))])
+                .setOffset(offset / PARTITIONS_COUNT)
+                .setCommitOffsetFrom(offset / PARTITIONS_COUNT)
+                .setCreatedAt(now)
+                .setBatchMeta(meta)
+                .setPartitionSession(partitions[partition])
+                .build();
+        writer.addMessage(partition, msg);
+        // the topic reader doesn't deliver next messages of paused partition
+        writer.getFlowControl().resumed(partitions[partition].getId()).join();
+    }
+}
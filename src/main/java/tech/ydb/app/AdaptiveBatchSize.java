@@ -0,0 +1,100 @@
+package tech.ydb.app;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import tech.ydb.core.Issue;
+import tech.ydb.core.Status;
+import tech.ydb.core.StatusCode;
+
+/**
+ * Effective batch size of one writer thread. In the adaptive mode the size is increased additively after every full
+ * batch executed faster than the target latency and is decreased multiplicatively after timeouts, overloading or
+ * errors of too large transaction (AIMD). Without the adaptive mode the size is always equal to the configured one.
+ *
+ * @author Aleksandr Gorshenin
+ */
+public class AdaptiveBatchSize {
+    private static final Set<StatusCode> SHRINK_CODES = EnumSet.of(
+            StatusCode.TIMEOUT,
+            StatusCode.OVERLOADED,
+            StatusCode.CLIENT_DEADLINE_EXCEEDED,
+            StatusCode.CLIENT_DEADLINE_EXPIRED,
+            StatusCode.CLIENT_RESOURCE_EXHAUSTED
+    );
+
+    // lower case fragments of messages about too large transaction or request, other limits like rate limits or
+    // quotas don't depend on the batch size
+    private static final List<String> SIZE_LIMIT_MESSAGES = Arrays.asList(
+            "memory limit exceeded",
+            "size limit exceeded",
+            "exceeds maximum size",
+            "larger than max",
+            "too large",
+            "too big"
+    );
+
+    private final boolean adaptive;
+    private final int minSize;
+    private final int maxSize;
+    private final int step;
+    private final long targetNanos;
+
+    private volatile int size;
+
+    public AdaptiveBatchSize(XmlConfig.Cdc config) {
+        this.adaptive = config.isAdaptiveBatch();
+        this.minSize = config.getMinBatchSize();
+        this.maxSize = Math.max(minSize, config.getMaxBatchSize());
+        this.step = Math.max(1, config.getBatchSize() / 10);
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(config.getTargetLatencyMs());
+        this.size = adaptive ? Math.max(minSize, Math.min(maxSize, config.getBatchSize())) : config.getBatchSize();
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public int get() {
+        return size;
+    }
+
+    public synchronized void success(int rows, long nanos) {
+        // batch which isn't full says nothing about the larger batches
+        if (!adaptive || rows < size || nanos >= targetNanos) {
+            return;
+        }
+        size = Math.min(maxSize, size + step);
+    }
+
+    public synchronized void failure(Status status) {
+        if (!adaptive || !isSizeError(status)) {
+            return;
+        }
+        size = Math.max(minSize, size / 2);
+    }
+
+    private static boolean isSizeError(Status status) {
+        return SHRINK_CODES.contains(status.getCode()) || hasLimitIssue(status.getIssues());
+    }
+
+    // errors of exceeded limits of transaction or of message size
+    private static boolean hasLimitIssue(Issue[] issues) {
+        for (Issue issue: issues) {
+            String message = issue.getMessage().toLowerCase(Locale.ROOT);
+            for (String fragment: SIZE_LIMIT_MESSAGES) {
+                if (message.contains(fragment)) {
+                    return true;
+                }
+            }
+            if (hasLimitIssue(issue.getIssues())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
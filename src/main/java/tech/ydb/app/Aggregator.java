@@ -0,0 +1,253 @@
+package tech.ydb.app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import tech.ydb.table.values.OptionalValue;
+import tech.ydb.table.values.PrimitiveType;
+import tech.ydb.table.values.PrimitiveValue;
+import tech.ydb.table.values.StructType;
+import tech.ydb.table.values.StructValue;
+import tech.ydb.table.values.Type;
+import tech.ydb.table.values.Value;
+
+/**
+ * Folds rows of the batch into one delta row per group. Sums are accumulated in primitive arrays, groups with one
+ * integer column are looked up in the primitive hash map without boxing of keys.
+ *
+ * @author Aleksandr Gorshenin
+ */
+public class Aggregator {
+    private final StructType sourceType;
+    private final StructType deltaType;
+
+    private final int[] groupMembers; // members of source type
+    private final int[] groupDeltas; // members of delta type
+    private final int[] sumMembers;
+    private final int[] sumDeltas;
+    private final boolean[] sumIsDouble;
+    private final int countDelta; // -1 if count is not used
+    private final boolean longGroup; // group by one integer column
+
+    /**
+     * @param sourceType type of parsed rows
+     * @param deltaType type of rows passed to the query, has all members of source type and the optional count
+     * @param groupBy names of group columns
+     * @param count name of the count member or null
+     */
+    public Aggregator(StructType sourceType, StructType deltaType, List<String> groupBy, String count) {
+        this.sourceType = sourceType;
+        this.deltaType = deltaType;
+
+        this.groupMembers = new int[groupBy.size()];
+        this.groupDeltas = new int[groupBy.size()];
+        for (int idx = 0; idx < groupBy.size(); idx++) {
+            groupMembers[idx] = sourceType.getMemberIndex(groupBy.get(idx));
+            groupDeltas[idx] = deltaType.getMemberIndex(groupBy.get(idx));
+        }
+
+        int sumsCount = sourceType.getMembersCount() - groupBy.size();
+        this.sumMembers = new int[sumsCount];
+        this.sumDeltas = new int[sumsCount];
+        this.sumIsDouble = new boolean[sumsCount];
+        int sum = 0;
+        for (int idx = 0; idx < sourceType.getMembersCount(); idx++) {
+            String name = sourceType.getMemberName(idx);
+            if (!groupBy.contains(name)) {
+                sumMembers[sum] = idx;
+                sumDeltas[sum] = deltaType.getMemberIndex(name);
+                sumIsDouble[sum] = isDouble(sourceType.getMemberType(idx));
+                sum++;
+            }
+        }
+
+        this.countDelta = count != null ? deltaType.getMemberIndex(count) : -1;
+        Type groupType = groupMembers.length == 1 ? sourceType.getMemberType(groupMembers[0]) : null;
+        this.longGroup = groupType != null && groupType.getKind() != Type.Kind.OPTIONAL && isInteger(groupType);
+    }
+
+    public static boolean isInteger(Type type) {
+        switch (primitiveType(type)) {
+            case Int8: case Int16: case Int32: case Int64:
+            case Uint8: case Uint16: case Uint32: case Uint64:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return true if type is 64-bit integer, sums and counts are folded only into such members to not overflow
+     */
+    public static boolean isLong(Type type) {
+        PrimitiveType primitive = primitiveType(type);
+        return primitive == PrimitiveType.Int64 || primitive == PrimitiveType.Uint64;
+    }
+
+    public static boolean isDouble(Type type) {
+        PrimitiveType primitive = primitiveType(type);
+        return primitive == PrimitiveType.Float || primitive == PrimitiveType.Double;
+    }
+
+    private static PrimitiveType primitiveType(Type type) {
+        Type item = type.getKind() == Type.Kind.OPTIONAL ? type.unwrapOptional() : type;
+        return item.getKind() == Type.Kind.PRIMITIVE ? (PrimitiveType) item : PrimitiveType.Text;
+    }
+
+    /**
+     * Folds rows into delta rows. Method doesn't have any shared state and can be called concurrently.
+     *
+     * @param rows rows of source type
+     * @return rows of delta type, one row for every group
+     */
+    public List<Value<?>> fold(List<Value<?>> rows) {
+        long[][] longSums = new long[sumMembers.length][];
+        double[][] doubleSums = new double[sumMembers.length][];
+        for (int idx = 0; idx < sumMembers.length; idx++) {
+            if (sumIsDouble[idx]) {
+                doubleSums[idx] = new double[rows.size()];
+            } else {
+                longSums[idx] = new long[rows.size()];
+            }
+        }
+        long[] counts = new long[rows.size()];
+        List<StructValue> groups = new ArrayList<>();
+
+        LongIndexMap longIndex = longGroup ? new LongIndexMap(rows.size()) : null;
+        Map<List<Value<?>>, Integer> index = longGroup ? null : new HashMap<>();
+
+        for (Value<?> value: rows) {
+            StructValue row = (StructValue) value;
+            int slot;
+            if (longGroup) {
+                slot = longIndex.putIfAbsent(readLong(row.getMemberValue(groupMembers[0])), groups.size());
+            } else {
+                Value<?>[] key = new Value<?>[groupMembers.length];
+                for (int idx = 0; idx < groupMembers.length; idx++) {
+                    key[idx] = row.getMemberValue(groupMembers[idx]);
+                }
+                slot = index.computeIfAbsent(Arrays.asList(key), k -> groups.size());
+            }
+            if (slot == groups.size()) {
+                groups.add(row);
+            }
+
+            counts[slot]++;
+            for (int idx = 0; idx < sumMembers.length; idx++) {
+                Value<?> member = row.getMemberValue(sumMembers[idx]);
+                if (sumIsDouble[idx]) {
+                    doubleSums[idx][slot] += readDouble(member);
+                } else {
+                    longSums[idx][slot] += readLong(member);
+                }
+            }
+        }
+
+        List<Value<?>> deltas = new ArrayList<>(groups.size());
+        for (int slot = 0; slot < groups.size(); slot++) {
+            Value<?>[] members = new Value<?>[deltaType.getMembersCount()];
+            for (int idx = 0; idx < groupMembers.length; idx++) {
+                members[groupDeltas[idx]] = groups.get(slot).getMemberValue(groupMembers[idx]);
+            }
+            for (int idx = 0; idx < sumMembers.length; idx++) {
+                Type type = sourceType.getMemberType(sumMembers[idx]);
+                members[sumDeltas[idx]] = sumIsDouble[idx] ? newDouble(type, doubleSums[idx][slot])
+                        : newLong(type, longSums[idx][slot]);
+            }
+            if (countDelta >= 0) {
+                members[countDelta] = newLong(deltaType.getMemberType(countDelta), counts[slot]);
+            }
+            deltas.add(deltaType.newValueUnsafe(members));
+        }
+        return deltas;
+    }
+
+    private static Value<?> unwrap(Value<?> value) {
+        if (value instanceof OptionalValue) {
+            OptionalValue optional = (OptionalValue) value;
+            return optional.isPresent() ? unwrap(optional.get()) : null;
+        }
+        return value;
+    }
+
+    private static long readLong(Value<?> value) {
+        PrimitiveValue primitive = (PrimitiveValue) unwrap(value);
+        if (primitive == null) { // null doesn't change the sum
+            return 0;
+        }
+        switch (primitive.getType()) {
+            case Int8: return primitive.getInt8();
+            case Int16: return primitive.getInt16();
+            case Int32: return primitive.getInt32();
+            case Int64: return primitive.getInt64();
+            case Uint8: return primitive.getUint8();
+            case Uint16: return primitive.getUint16();
+            case Uint32: return primitive.getUint32();
+            case Uint64: return primitive.getUint64();
+            default:
+                throw new IllegalArgumentException("Unsupported type of sum " + primitive.getType());
+        }
+    }
+
+    private static double readDouble(Value<?> value) {
+        PrimitiveValue primitive = (PrimitiveValue) unwrap(value);
+        if (primitive == null) {
+            return 0;
+        }
+        return primitive.getType() == PrimitiveType.Float ? primitive.getFloat() : primitive.getDouble();
+    }
+
+    private static Value<?> newLong(Type type, long value) {
+        boolean optional = type.getKind() == Type.Kind.OPTIONAL;
+        // delta members are checked by isLong, narrow types would truncate the sum
+        PrimitiveValue result = primitiveType(type) == PrimitiveType.Uint64
+                ? PrimitiveValue.newUint64(value) : PrimitiveValue.newInt64(value);
+        return optional ? result.makeOptional() : result;
+    }
+
+    private static Value<?> newDouble(Type type, double value) {
+        boolean optional = type.getKind() == Type.Kind.OPTIONAL;
+        PrimitiveValue result = primitiveType(type) == PrimitiveType.Float
+                ? PrimitiveValue.newFloat((float) value) : PrimitiveValue.newDouble(value);
+        return optional ? result.makeOptional() : result;
+    }
+
+    /**
+     * Open addressing hash map from long key to the index of group.
+     */
+    private static class LongIndexMap {
+        private final long[] keys;
+        private final int[] values;
+        private final int mask;
+        private final int shift;
+
+        LongIndexMap(int expectedSize) {
+            int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+            this.keys = new long[capacity];
+            this.values = new int[capacity];
+            this.mask = capacity - 1;
+            this.shift = Integer.numberOfLeadingZeros(mask); // 32 - log2(capacity)
+            Arrays.fill(values, -1);
+        }
+
+        /**
+         * @return index of the existing key or the given value if the key is added
+         */
+        int putIfAbsent(long key, int value) {
+            // fibonacci hashing takes the high bits of product, the low bits are poorly mixed
+            int pos = ((int) (key ^ (key >>> 32)) * 0x9E3779B9) >>> shift;
+            while (values[pos] >= 0) {
+                if (keys[pos] == key) {
+                    return values[pos];
+                }
+                pos = (pos + 1) & mask;
+            }
+            keys[pos] = key;
+            values[pos] = value;
+            return value;
+        }
+    }
+}
@@ -7,6 +7,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.function.Supplier;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PreDestroy;
 import jakarta.xml.bind.JAXB;
 import org.slf4j.Logger;
@@ -28,13 +29,15 @@ public class Application implements CommandLineRunner {
 
     private final ApplicationContext ctx;
     private final YdbService ydb;
+    private final MeterRegistry registry;
 
     private final List<String> warnings = new ArrayList<>();
     private final List<CdcReader> readers = new ArrayList<>();
 
-    public Application(ApplicationContext ctx, YdbService ydb) {
+    public Application(ApplicationContext ctx, YdbService ydb, MeterRegistry registry) {
         this.ctx = ctx;
         this.ydb = ydb;
+        this.registry = registry;
     }
 
     public List<String> getWarnings() {
@@ -72,7 +75,7 @@ public class Application implements CommandLineRunner {
 
         int sessionPoolSize = 0;
         for (CdcReader reader: readers) {
-            sessionPoolSize += reader.getWriter().getThreadsCount();
+            sessionPoolSize += reader.getWriter().getSessionsCount();
         }
         ydb.updatePoolSize(Math.max(sessionPoolSize, 50));
 
@@ -96,8 +99,9 @@ public class Application implements CommandLineRunner {
                 logger.error("can't create reader {} with problem {}", cdc.getConsumer(), batcher.getStatus());
                 warnings.add("can't create reader " + cdc.getConsumer() + " with problem: " + batcher.getStatus());
             } else {
-                YqlWriter writer = new YqlWriter(ydb, batcher.getValue(), cdc);
-                readers.add(new CdcReader(ydb, writer, cdc.getConsumer(), cdc.getChangefeed()));
+                YqlWriter writer = new YqlWriter(ydb, batcher.getValue(), cdc, registry);
+                readers.add(new CdcReader(ydb, writer, cdc.getConsumer(), cdc.getChangefeed(),
+                        cdc.getMaxMemoryUsageBytes()));
             }
         }
     }
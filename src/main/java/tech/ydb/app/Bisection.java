@@ -0,0 +1,63 @@
+package tech.ydb.app;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import tech.ydb.core.Status;
+
+/**
+ * Search of rows which cannot be written because of their data. The failed range is split in halves until every
+ * failed part is one row, other parts are written. Errors of parts are already narrowed to the codes caused by rows,
+ * so the single rows which still fail are returned for the quarantine even if every row of the range fails.
+ *
+ * @author Aleksandr Gorshenin
+ */
+class Bisection {
+    /**
+     * Execution of the part of the batch. Transient errors are retried by the implementation, so the returned status
+     * is either success or the error caused by rows.
+     */
+    @FunctionalInterface
+    interface Probe {
+        Status execute(int from, int to, BitSet applied) throws InterruptedException;
+    }
+
+    private final Probe probe;
+    private final Map<Integer, Status> failedRows = new LinkedHashMap<>();
+
+    Bisection(Probe probe) {
+        this.probe = probe;
+    }
+
+    /**
+     * @param from first row of the failed range
+     * @param to end of the failed range
+     * @param applied parts of the query applied to the whole range, they are not applied again
+     * @param status error of the range
+     * @return rows which cannot be written with their errors in order of rows, all other rows are written
+     * @throws InterruptedException if the writer is interrupted
+     */
+    Map<Integer, Status> isolate(int from, int to, BitSet applied, Status status) throws InterruptedException {
+        split(from, to, applied, status);
+        return failedRows;
+    }
+
+    private void split(int from, int to, BitSet applied, Status status) throws InterruptedException {
+        if (to - from == 1) {
+            failedRows.put(from, status);
+            return;
+        }
+
+        int middle = (from + to) >>> 1;
+        execute(from, middle, (BitSet) applied.clone());
+        execute(middle, to, (BitSet) applied.clone());
+    }
+
+    private void execute(int from, int to, BitSet applied) throws InterruptedException {
+        Status status = probe.execute(from, to, applied);
+        if (!status.isSuccess()) {
+            split(from, to, applied, status);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package tech.ydb.app;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events of the writer. Events are disabled until the recording is started, so the disabled
+ * event costs only the check of {@link Event#isEnabled() }. The reader is identified by its changefeed and consumer,
+ * the partition is -1 when the batch contains messages of several partitions.
+ *
+ * @author Aleksandr Gorshenin
+ */
+public class CdcEvents {
+    private CdcEvents() { }
+
+    @Category({ "YDB", "CDC Processor" })
+    @StackTrace(false)
+    abstract static class CdcEvent extends Event {
+        @Label("Changefeed")
+        String changefeed;
+
+        @Label("Consumer")
+        String consumer;
+
+        @Label("Writer")
+        String writer;
+
+        @Label("Partition")
+        long partition;
+
+        @Label("Batch Size")
+        @Description("Count of messages of the batch or count of rows of the executed query")
+        int batchSize;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        void set(XmlConfig.Cdc cdc, String writerName, long partitionId, int count, long size) {
+            this.changefeed = cdc.getChangefeed();
+            this.consumer = cdc.getConsumer();
+            this.writer = writerName;
+            this.partition = partitionId;
+            this.batchSize = count;
+            this.bytes = size;
+        }
+    }
+
+    @Name("tech.ydb.cdc.Parse")
+    @Label("Parse Batch")
+    @Description("Reading and parsing of messages of one batch, duration includes waiting for messages")
+    static class Parse extends CdcEvent {
+        @Label("Parse Time")
+        @Description("Time spent in parsing of messages")
+        @Timespan(Timespan.NANOSECONDS)
+        long parseTime;
+    }
+
+    @Name("tech.ydb.cdc.Execute")
+    @Label("Execute Batch")
+    @Description("One attempt of execution of the batch query")
+    static class Execute extends CdcEvent {
+        @Label("Attempt")
+        int attempt;
+
+        @Label("Status")
+        String status;
+    }
+
+    @Name("tech.ydb.cdc.Commit")
+    @Label("Commit Offsets")
+    @Description("Commit of offsets of the written batch")
+    static class Commit extends CdcEvent {
+    }
+}
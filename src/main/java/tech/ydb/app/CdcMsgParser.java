@@ -1,15 +1,21 @@
 package tech.ydb.app;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,6 +29,8 @@ import tech.ydb.table.query.DataQuery;
 import tech.ydb.table.values.ListType;
 import tech.ydb.table.values.StructType;
 import tech.ydb.table.values.Type;
+import tech.ydb.table.values.Value;
+import tech.ydb.topic.read.Message;
 
 
 /**
@@ -32,54 +40,523 @@ import tech.ydb.table.values.Type;
 public class CdcMsgParser {
     private static final Logger logger = LoggerFactory.getLogger(YqlWriter.class); // use logger of YdlWriter
 
-    private final ObjectMapper mapper = new ObjectMapper();
+    private static final JsonFactory FACTORY = new JsonFactory();
+    // select of members or * from the parameter without any other clause
+    private static final Pattern PROJECTION = Pattern.compile(
+            "SELECT\\s+(\\*|(?:\\w+|`[^`]+`)(?:\\s*,\\s*(?:\\w+|`[^`]+`))*)"
+            + "\\s+FROM\\s+AS_TABLE\\s*\\(\\s*(\\$\\w+)\\s*\\)", Pattern.CASE_INSENSITIVE);
 
     private final YqlQuery updateQuery;
     private final YqlQuery deleteQuery;
+    private final List<YqlQuery> queries = new ArrayList<>();
+    private final RowFilter filter;
 
-    private CdcMsgParser(Supplier<YqlQuery> updateQuery, Supplier<YqlQuery> deleteQuery) {
+    // query with the pending change of the key of the last parsed message
+    private YqlQuery conflicted = null;
+    // the last parsed message was dropped by the filter
+    private boolean filtered = false;
+
+    CdcMsgParser(Supplier<YqlQuery> updateQuery, Supplier<YqlQuery> deleteQuery) {
+        this(updateQuery, deleteQuery, null);
+    }
+
+    CdcMsgParser(Supplier<YqlQuery> updateQuery, Supplier<YqlQuery> deleteQuery, RowFilter filter) {
+        this.filter = filter;
         this.updateQuery = updateQuery.get();
         this.deleteQuery = deleteQuery.get();
+
+        if (this.updateQuery != null) {
+            queries.add(this.updateQuery);
+        }
+        if (this.deleteQuery != null) {
+            queries.add(this.deleteQuery);
+        }
+
+        // updates and deletes are buffered separately, so the writer has to know when both buffers have the same key
+        if (this.updateQuery != null && !this.updateQuery.isSkipping()
+                && this.deleteQuery != null && !this.deleteQuery.isSkipping()) {
+            this.updateQuery.enableKeysTracking();
+            this.deleteQuery.enableKeysTracking();
+        }
+    }
+
+    /**
+     * @return all queries of the parser in the fixed order
+     */
+    public List<YqlQuery> getQueries() {
+        return queries;
+    }
+
+    public void setBatchSize(int batchSize) {
+        for (YqlQuery query: queries) {
+            query.setBatchSize(batchSize);
+        }
+    }
+
+    public boolean isFull() {
+        for (YqlQuery query: queries) {
+            if (query.isFull()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the query which has a pending change of the same key as the last parsed message. Batch of this query
+     * must be written before the batch with the last message.
+     *
+     * @return query to flush or null if there is no conflict
+     */
+    public YqlQuery takeConflictedQuery() {
+        YqlQuery query = conflicted;
+        conflicted = null;
+        return query;
+    }
+
+    /**
+     * Returns if the last parsed message was dropped by the filter and resets the flag.
+     *
+     * @return true if the message was dropped
+     */
+    public boolean takeFiltered() {
+        boolean value = filtered;
+        filtered = false;
+        return value;
     }
 
     public YqlQuery parseJsonMessage(byte[] json) throws IOException {
-        JsonNode root = mapper.readTree(json);
-        if (!root.isObject() || !root.hasNonNull("key")) {
-            logger.error("unsupported cdc message {}", new String(json));
-            return null;
+        return parseJsonMessage(json, null);
+    }
+
+    /**
+     * Parses the message and adds its row to the batch of the corresponding query. The message is kept with the row,
+     * so the row can be quarantined if it cannot be written.
+     *
+     * @param msg topic message
+     * @return query which got the row or {@code null} if the message is not supported or dropped by the filter
+     * @throws IOException if message cannot be parsed
+     */
+    public YqlQuery parseMessage(Message msg) throws IOException {
+        return parseJsonMessage(msg.getData(), msg);
+    }
+
+    private YqlQuery parseJsonMessage(byte[] json, Message source) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                logger.error("unsupported cdc message {}", new String(json));
+                return null;
+            }
+
+            int keyFrom = -1;
+            int keyTo = -1;
+            boolean hasUpdate = false;
+            boolean hasErase = false;
+            Value<?>[] update = null;
+            Value<?>[] newImage = null;
+            // with the filter the values of update are built only after the filter is passed, so the pass reads the
+            // filter columns and remembers the bounds of update like the bounds of key
+            Object[] filterValues = filter != null ? filter.newValues() : null;
+            int[] updateRange = null;
+            int[] newImageRange = null;
+
+            // single pass over the message, values of update are read directly into the struct members
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("key".equals(field) && token == JsonToken.START_ARRAY) {
+                    keyFrom = (int) parser.getTokenLocation().getByteOffset();
+                    if (filterValues != null && filter.hasKeyColumns()) {
+                        readFilterKey(parser, filter, filterValues);
+                    } else {
+                        parser.skipChildren();
+                    }
+                    keyTo = (int) parser.getCurrentLocation().getByteOffset();
+                } else if ("update".equals(field) && token == JsonToken.START_OBJECT) {
+                    hasUpdate = true;
+                    if (filterValues != null) {
+                        updateRange = readFilterMembers(parser, filter, filterValues);
+                    } else {
+                        update = readMembers(parser, updateQuery);
+                    }
+                } else if ("newImage".equals(field) && token == JsonToken.START_OBJECT) {
+                    hasUpdate = true;
+                    if (filterValues != null) {
+                        newImageRange = readFilterMembers(parser, filter, filterValues);
+                    } else {
+                        newImage = readMembers(parser, updateQuery);
+                    }
+                } else if ("erase".equals(field) && token != JsonToken.VALUE_NULL) {
+                    hasErase = true;
+                    parser.skipChildren();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            if (keyFrom < 0) {
+                logger.error("unsupported cdc message {}", new String(json));
+                return null;
+            }
+
+            if (filterValues != null) {
+                // dropped message doesn't build any value
+                if (!filter.test(filterValues, hasErase)) {
+                    filtered = true;
+                    return null;
+                }
+                if (hasUpdate && updateQuery != null) {
+                    update = readMembers(json, updateRange != null ? updateRange : newImageRange, updateQuery);
+                }
+            }
+
+            if (hasUpdate && updateQuery != null) {
+                Value<?>[] members = update != null ? update : newImage;
+                if (members == null) {
+                    members = new Value<?>[updateQuery.getMembersCount()];
+                }
+                return addMessage(updateQuery, json, keyFrom, keyTo, members, source);
+            }
+
+            if (hasErase && deleteQuery != null) {
+                return addMessage(deleteQuery, json, keyFrom, keyTo, new Value<?>[deleteQuery.getMembersCount()],
+                        source);
+            }
         }
 
-        JsonNode key = root.get("key");
+        logger.error("unsupported cdc message {}", new String(json));
+        return null;
+    }
 
-        if (!key.isArray()) {
-            logger.error("unsupported cdc message {}", new String(json));
-            return null;
+    private static Value<?>[] readMembers(JsonParser parser, YqlQuery query) throws IOException {
+        Value<?>[] members = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            if (members == null) {
+                members = new Value<?>[query != null ? query.getMembersCount() : 0];
+            }
+
+            int idx = query != null ? query.getValueMemberIndex(parser.getCurrentName()) : -1;
+            parser.nextToken();
+            if (idx < 0) { // column is not used by query
+                parser.skipChildren();
+            } else {
+                members[idx] = query.readValue(idx, parser);
+            }
+        }
+        return members;
+    }
+
+    private static Value<?>[] readMembers(byte[] json, int[] range, YqlQuery query) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(json, range[0], range[1] - range[0])) {
+            parser.nextToken(); // START_OBJECT
+            return readMembers(parser, query);
         }
+    }
 
-        if (root.hasNonNull("update") && updateQuery != null) {
-            JsonNode update = root.get("update");
-            if (update.isObject() && update.isObject()) {
-                updateQuery.addMessage(key, update.isEmpty() ? null : update);
-                return updateQuery;
+    /**
+     * Reads columns of the filter from the update object and skips other values.
+     *
+     * @return bounds of the update object in the message
+     */
+    private static int[] readFilterMembers(JsonParser parser, RowFilter filter, Object[] filterValues)
+            throws IOException {
+        int from = (int) parser.getTokenLocation().getByteOffset();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            int column = filter.getColumn(parser.getCurrentName());
+            parser.nextToken();
+            if (column >= 0) {
+                filterValues[column] = RowFilter.readValue(parser);
             }
+            parser.skipChildren();
+        }
+        return new int[] { from, (int) parser.getCurrentLocation().getByteOffset() };
+    }
 
-            JsonNode newImage = root.get("newImage");
-            if (newImage != null && newImage.isObject() && !newImage.isEmpty()) {
-                updateQuery.addMessage(key, newImage);
-                return updateQuery;
+    private static void readFilterKey(JsonParser parser, RowFilter filter, Object[] filterValues)
+            throws IOException {
+        int keyIndex = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            int column = filter.getKeyColumn(keyIndex++);
+            if (column >= 0) {
+                filterValues[column] = RowFilter.readValue(parser);
             }
+            parser.skipChildren();
+        }
+    }
 
-            logger.error("unsupported update cdc message {}", new String(json));
+    public long getCoalescedCount() {
+        long count = 0;
+        if (updateQuery != null) {
+            count += updateQuery.getCoalescedCount();
+        }
+        if (deleteQuery != null) {
+            count += deleteQuery.getCoalescedCount();
+        }
+        return count;
+    }
+
+    public long getQueryCacheHits() {
+        long count = 0;
+        for (YqlQuery query: queries) {
+            count += query.getQueryCacheHits();
+        }
+        return count;
+    }
+
+    public long getQueryCacheMisses() {
+        long count = 0;
+        for (YqlQuery query: queries) {
+            count += query.getQueryCacheMisses();
+        }
+        return count;
+    }
+
+    private YqlQuery addMessage(YqlQuery query, byte[] json, int keyFrom, int keyTo, Value<?>[] members,
+            Message source) throws IOException {
+        // the key array is read after the message type is known, it is short enough to be parsed twice
+        try (JsonParser parser = FACTORY.createParser(json, keyFrom, keyTo - keyFrom)) {
+            parser.nextToken(); // START_ARRAY
+            int keyIndex = 0;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                int idx = query.getKeyMemberIndex(keyIndex++);
+                if (idx < 0) {
+                    parser.skipChildren();
+                } else {
+                    members[idx] = query.readValue(idx, parser);
+                }
+            }
+        }
+
+        String key = null;
+        if (query.isTrackingKeys()) {
+            key = new String(json, keyFrom, keyTo - keyFrom, StandardCharsets.UTF_8);
+        }
+        query.addRow(members, key, source);
+        query.addBytes(json.length);
+
+        YqlQuery other = query == updateQuery ? deleteQuery : updateQuery;
+        if (other != null && key != null) {
+            if (query.isCoalescing()) { // erase replaces the pending update of the same key and vice versa
+                other.removeKey(key);
+            } else if (other.containsKey(key)) {
+                conflicted = other;
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Calculates hash of the raw key array of the cdc message without parsing of the full message.
+     *
+     * @param json cdc message
+     * @return hash of primary key or zero if message doesn't have a key
+     */
+    public static int keyHash(byte[] json) {
+        try (JsonParser parser = FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return 0;
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("key".equals(name) && value == JsonToken.START_ARRAY) {
+                    int from = (int) parser.getTokenLocation().getByteOffset();
+                    parser.skipChildren();
+                    int to = (int) parser.getCurrentLocation().getByteOffset();
+
+                    int hash = 1;
+                    for (int idx = from; idx < to; idx++) {
+                        hash = 31 * hash + json[idx];
+                    }
+                    return hash;
+                }
+                parser.skipChildren();
+            }
+        } catch (IOException ex) {
+            logger.trace("can't read key of cdc message {}", new String(json), ex);
+        }
+        return 0;
+    }
+
+    /**
+     * Puts the action before the select statement of the query. It is possible only if the select is the last
+     * statement and there are no other selects in the query.
+     *
+     * @param query text of query with select
+     * @param action prefix of action statement like {@code UPSERT INTO `table` }
+     * @return text of the combined query or null if query cannot be combined
+     */
+    static String combineWithAction(String query, String action) {
+        List<int[]> statements = splitStatements(query);
+        int selectStart = -1;
+        int selectsCount = 0;
+        for (int[] statement: statements) {
+            if (startsWithKeyword(query, statement[0], "SELECT")) {
+                selectStart = statement[0];
+                selectsCount++;
+            }
+        }
+
+        // select must be the last statement of the query
+        if (selectsCount != 1 || statements.get(statements.size() - 1)[0] != selectStart) {
             return null;
         }
 
-        if (root.hasNonNull("erase") && deleteQuery != null) {
-            deleteQuery.addMessage(key, null);
-            return deleteQuery;
+        return query.substring(0, selectStart) + action + query.substring(selectStart);
+    }
+
+    /**
+     * Checks that the query only declares the parameter and selects all its members without any change, so the rows
+     * of the parameter can be written as is.
+     *
+     * @param query text of query
+     * @param paramName name of the parameter
+     * @param type struct type of the parameter
+     * @return true if the query is {@code DECLARE} and {@code SELECT * FROM AS_TABLE(param)} or the same select of
+     * the list of all members
+     */
+    static boolean isPlainProjection(String query, String paramName, StructType type) {
+        List<int[]> statements = splitStatements(query);
+        if (statements.size() != 2 || !startsWithKeyword(query, statements.get(0)[0], "DECLARE")) {
+            return false;
         }
 
-        logger.error("unsupported cdc message {}", new String(json));
-        return null;
+        Matcher select = PROJECTION.matcher(query.substring(statements.get(1)[0], statements.get(1)[1]));
+        if (!select.matches() || !select.group(2).equals(paramName)) {
+            return false;
+        }
+        if (select.group(1).equals("*")) {
+            return true;
+        }
+
+        Set<String> members = new HashSet<>();
+        for (String member: select.group(1).split(",")) {
+            String name = member.trim();
+            if (name.startsWith("`")) {
+                name = name.substring(1, name.length() - 1);
+            }
+            if (type.getMemberIndex(name) < 0 || !members.add(name)) {
+                return false;
+            }
+        }
+        return members.size() == type.getMembersCount();
+    }
+
+    /**
+     * Composes several queries into one script. Every query is wrapped into the action with the parameter of the
+     * query, so named expressions of different queries don't conflict. Rows of the union type are passed once and
+     * every action gets its projection.
+     *
+     * @param queries texts of queries, every query declares one parameter
+     * @param params names of parameters of queries
+     * @param types struct types of parameters of queries
+     * @param union union of types of all queries
+     * @return text of script with one parameter {@code $cdc_rows}
+     */
+    static String composeScript(List<String> queries, List<String> params, List<StructType> types,
+            StructType union) {
+        StringBuilder script = new StringBuilder();
+        script.append("DECLARE $cdc_rows AS List<").append(union).append(">;\n");
+
+        for (int idx = 0; idx < queries.size(); idx++) {
+            String query = queries.get(idx);
+            String action = "$cdc_target_" + (idx + 1);
+            script.append("\nDEFINE ACTION ").append(action).append("(").append(params.get(idx)).append(") AS\n");
+            for (int[] statement: splitStatements(query)) {
+                if (!startsWithKeyword(query, statement[0], "DECLARE")) {
+                    script.append("    ").append(query, statement[0], statement[1]).append(";\n");
+                }
+            }
+            script.append("END DEFINE;\n");
+
+            StructType type = types.get(idx);
+            script.append("DO ").append(action).append("(");
+            if (type.equals(union)) {
+                script.append("$cdc_rows");
+            } else {
+                script.append("ListMap($cdc_rows, ($r) -> (<|");
+                for (int member = 0; member < type.getMembersCount(); member++) {
+                    String name = type.getMemberName(member);
+                    script.append(member > 0 ? ", " : "").append(name).append(": $r.").append(name);
+                }
+                script.append("|>))");
+            }
+            script.append(");\n");
+        }
+        return script.toString();
+    }
+
+    /**
+     * Splits the query to statements, quoted strings and comments are skipped.
+     *
+     * @param query text of query
+     * @return list of the first significant char and the end of significant chars of every statement
+     */
+    static List<int[]> splitStatements(String query) {
+        List<int[]> statements = new ArrayList<>();
+        int statementStart = -1; // first significant char of the current statement
+        int statementEnd = -1;
+
+        int idx = 0;
+        while (idx < query.length()) {
+            char ch = query.charAt(idx);
+            int next = idx + 1;
+            if (ch == '\'' || ch == '"' || ch == '`') {
+                next = skipQuoted(query, idx, ch);
+            } else if (ch == '@' && query.startsWith("@@", idx)) {
+                int end = query.indexOf("@@", idx + 2);
+                next = end < 0 ? query.length() : end + 2;
+            } else if (ch == '-' && query.startsWith("--", idx)) {
+                int end = query.indexOf('\n', idx);
+                next = end < 0 ? query.length() : end + 1;
+                ch = ' ';
+            } else if (ch == '/' && query.startsWith("/*", idx)) {
+                int end = query.indexOf("*/", idx + 2);
+                next = end < 0 ? query.length() : end + 2;
+                ch = ' ';
+            }
+
+            if (ch == ';') {
+                if (statementStart >= 0) {
+                    statements.add(new int[] { statementStart, statementEnd });
+                }
+                statementStart = -1;
+            } else if (!Character.isWhitespace(ch)) {
+                if (statementStart < 0) {
+                    statementStart = idx;
+                }
+                statementEnd = next;
+            }
+            idx = next;
+        }
+
+        if (statementStart >= 0) {
+            statements.add(new int[] { statementStart, statementEnd });
+        }
+        return statements;
+    }
+
+    private static boolean startsWithKeyword(String query, int from, String keyword) {
+        int end = from + keyword.length();
+        return query.regionMatches(true, from, keyword, 0, keyword.length())
+                && (end >= query.length() || !Character.isJavaIdentifierPart(query.charAt(end)));
+    }
+
+    private static int skipQuoted(String query, int from, char quote) {
+        int idx = from + 1;
+        while (idx < query.length()) {
+            char ch = query.charAt(idx);
+            if (ch == '\\') {
+                idx += 2;
+                continue;
+            }
+            if (ch == quote) {
+                return idx + 1;
+            }
+            idx++;
+        }
+        return idx;
     }
 
     public static Result<Supplier<CdcMsgParser>> parseConfig(YdbService ydb,
@@ -100,6 +577,27 @@ public class CdcMsgParser {
 
         @SuppressWarnings("null")
         public Result<Supplier<CdcMsgParser>> parse() {
+            String routing = cdc.getRouting();
+            if (!"partition".equalsIgnoreCase(routing) && !"key".equalsIgnoreCase(routing)) {
+                return Result.fail(Status.of(StatusCode.CLIENT_INTERNAL_ERROR, Issue.of(
+                        "Uknown routing " + routing + ", expected partition/key", Issue.Severity.ERROR
+                )));
+            }
+
+            String fanOut = cdc.getFanOut();
+            if (!"separate".equalsIgnoreCase(fanOut) && !"script".equalsIgnoreCase(fanOut)) {
+                return Result.fail(Status.of(StatusCode.CLIENT_INTERNAL_ERROR, Issue.of(
+                        "Uknown fan out " + fanOut + ", expected separate/script", Issue.Severity.ERROR
+                )));
+            }
+
+            String statsMode = cdc.getStatsMode();
+            if (!Arrays.asList("none", "basic", "full", "profile").contains(statsMode.toLowerCase())) {
+                return Result.fail(Status.of(StatusCode.CLIENT_INTERNAL_ERROR, Issue.of(
+                        "Uknown stats mode " + statsMode + ", expected none/basic/full/profile", Issue.Severity.ERROR
+                )));
+            }
+
             String changefeed = ydb.expandPath(cdc.getChangefeed());
 
             int index = changefeed.lastIndexOf("/");
@@ -126,38 +624,134 @@ public class CdcMsgParser {
                 return deleteQuery.map(null);
             }
 
-            return Result.success(() -> new CdcMsgParser(updateQuery.getValue(), deleteQuery.getValue()));
+            Result<RowFilter> filter = compileFilter(description);
+            if (!filter.isSuccess()) {
+                return filter.map(null);
+            }
+
+            return Result.success(() -> new CdcMsgParser(updateQuery.getValue(), deleteQuery.getValue(),
+                    filter.getValue()));
+        }
+
+        private Result<RowFilter> compileFilter(TableDescription source) {
+            if (cdc.getFilter() == null) {
+                return Result.success(null);
+            }
+
+            RowFilter filter;
+            try {
+                filter = RowFilter.compile(cdc.getFilter(), source.getPrimaryKeys());
+            } catch (IllegalArgumentException ex) {
+                return Result.fail(Status.of(StatusCode.CLIENT_INTERNAL_ERROR, Issue.of(
+                        "Can't parse filter of consumer " + cdc.getConsumer() + ": " + ex.getMessage(),
+                        Issue.Severity.ERROR
+                )));
+            }
+
+            Set<String> columns = new HashSet<>();
+            for (TableColumn column: source.getColumns()) {
+                columns.add(column.getName());
+            }
+            for (String column: filter.getColumns()) {
+                if (!columns.contains(column)) {
+                    return Result.fail(Status.of(StatusCode.CLIENT_INTERNAL_ERROR, Issue.of(
+                            "Source table doesn't have column " + column + " used by filter " + cdc.getFilter(),
+                            Issue.Severity.ERROR
+                    )));
+                }
+            }
+            return Result.success(filter);
         }
 
         private Result<Supplier<YqlQuery>> findUpdateQuery(TableDescription source) {
             if (cdc.getQuery() != null && !cdc.getQuery().trim().isEmpty()) {
-                return validate(source, new XmlConfig.Query(cdc.getQuery().trim()), false);
+                return validate(source, new XmlConfig.Query(cdc.getQuery().trim()), false).map(Target::getQuery);
+            }
+            Result<Supplier<YqlQuery>> targets = findTargets(source, cdc.getUpdateQueryIds(), false);
+            if (targets == null) {
+                return Result.success(YqlQuery.skipMessages("update", "updateQueryId", source.getPrimaryKeys(), cdc));
+            }
+            return targets;
+        }
+
+        private Result<Supplier<YqlQuery>> findDeleteQuery(TableDescription source) {
+            Result<Supplier<YqlQuery>> targets = findTargets(source, cdc.getDeleteQueryIds(), true);
+            if (targets == null) {
+                return Result.success(YqlQuery.skipMessages("erase", "deleteQueryId",  source.getPrimaryKeys(), cdc));
             }
-            String queryId = cdc.getUpdateQueryId();
-            if (queryId != null && xmlQueries.containsKey(queryId)) {
+            return targets;
+        }
+
+        /**
+         * Validates all queries with given ids, several queries are written by one fan-out query or by one script.
+         *
+         * @return query of all targets or null if there are no queries with text
+         */
+        @SuppressWarnings("null")
+        private Result<Supplier<YqlQuery>> findTargets(TableDescription source, List<String> ids, boolean keysOnly) {
+            List<Target> targets = new ArrayList<>();
+            for (String queryId: ids) {
                 XmlConfig.Query query = xmlQueries.get(queryId);
-                if (query.getText() != null && !query.getText().trim().isEmpty()) {
-                    return validate(source, query, false);
+                if (query == null || query.getText() == null || query.getText().trim().isEmpty()) {
+                    continue;
+                }
+                Result<Target> target = validate(source, query, keysOnly);
+                if (!target.isSuccess()) {
+                    return target.map(null);
+                }
+                targets.add(target.getValue());
+            }
+
+            if (targets.isEmpty()) {
+                return null;
+            }
+            if (targets.size() == 1) {
+                return Result.success(targets.get(0).query);
+            }
+
+            if (cdc.isScriptFanOut()) {
+                Supplier<YqlQuery> script = composeScript(targets, source.getPrimaryKeys());
+                if (script != null) {
+                    return Result.success(script);
                 }
+                logger.info("queries of consumer {} will be executed one by one", cdc.getConsumer());
             }
 
-            return Result.success(YqlQuery.skipMessages("update", "updateQueryId", source.getPrimaryKeys(), cdc));
+            List<Supplier<YqlQuery>> queries = new ArrayList<>();
+            for (Target target: targets) {
+                queries.add(target.query);
+            }
+            return Result.success(YqlQuery.fanOut(queries, source.getPrimaryKeys(), cdc));
         }
 
-        private Result<Supplier<YqlQuery>> findDeleteQuery(TableDescription source) {
-            String queryId = cdc.getDeleteQueryId();
-            if (queryId != null && xmlQueries.containsKey(queryId)) {
-                XmlConfig.Query query = xmlQueries.get(queryId);
-                if (query.getText() != null && !query.getText().trim().isEmpty()) {
-                    return validate(source, query, true);
+        private Supplier<YqlQuery> composeScript(List<Target> targets, List<String> keys) {
+            List<String> texts = new ArrayList<>();
+            List<String> params = new ArrayList<>();
+            List<StructType> types = new ArrayList<>();
+            for (Target target: targets) {
+                if (target.script == null) {
+                    logger.warn("Query with separated action or bulk upsert cannot be a part of script for consumer {}",
+                            cdc.getConsumer());
+                    return null;
                 }
+                texts.add(target.script);
+                params.add(target.paramName);
+                types.add(target.type);
             }
 
-            return Result.success(YqlQuery.skipMessages("erase", "deleteQueryId",  source.getPrimaryKeys(), cdc));
+            StructType union = YqlQuery.unionType(types);
+            String script = CdcMsgParser.composeScript(texts, params, types, union);
+            Result<DataQuery> parsed = ydb.parseQuery(script);
+            if (!parsed.isSuccess()) {
+                logger.warn("Can't compose queries to one script for consumer {}, got status {}", cdc.getConsumer(),
+                        parsed.getStatus());
+                return null;
+            }
+            return YqlQuery.executeYql(script, keys, "$cdc_rows", union, cdc);
         }
 
         @SuppressWarnings("null")
-        private Result<Supplier<YqlQuery>> validate(TableDescription source, XmlConfig.Query query, boolean keysOnly) {
+        private Result<Target> validate(TableDescription source, XmlConfig.Query query, boolean keysOnly) {
             String text = query.getText().trim();
             Result<DataQuery> parsed = ydb.parseQuery(text);
             if (!parsed.isSuccess()) {
@@ -197,9 +791,13 @@ public class CdcMsgParser {
                 tableKeys.add(key);
             }
 
+            String countMember = query.getAggregateBy().isEmpty() ? null : query.getAggregateCount();
             for (int idx = 0; idx < structType.getMembersCount(); idx += 1) {
                 String name = structType.getMemberName(idx);
                 Type type = structType.getMemberType(idx);
+                if (name.equals(countMember)) { // count of changes is calculated by aggregation
+                    continue;
+                }
                 if (!tableTypes.containsKey(name)) {
                     return Result.fail(Status.of(StatusCode.CLIENT_INTERNAL_ERROR, Issue.of(
                             "Source table doesn't have column " + name, Issue.Severity.ERROR
@@ -222,33 +820,205 @@ public class CdcMsgParser {
             }
 
             List<String> keys = source.getPrimaryKeys();
+            Result<Target> target = createTarget(text, query, keysOnly, keys, paramName, structType);
+            if (!target.isSuccess() || query.getAggregateBy().isEmpty()) {
+                return target;
+            }
+            return validateAggregation(query, keysOnly, keys, target.getValue());
+        }
+
+        @SuppressWarnings("null")
+        private Result<Target> validateAggregation(XmlConfig.Query query, boolean keysOnly, List<String> keys,
+                Target target) {
+            if (keysOnly) {
+                return Result.fail(Status.of(StatusCode.CLIENT_INTERNAL_ERROR, Issue.of(
+                        "Aggregation is not supported for delete actions", Issue.Severity.ERROR
+                )));
+            }
+            if (cdc.isCoalesce()) {
+                return Result.fail(Status.of(StatusCode.CLIENT_INTERNAL_ERROR, Issue.of(
+                        "Aggregation cannot be used with coalesce, every change has to be counted", Issue.Severity.ERROR
+                )));
+            }
+
+            StructType deltaType = target.type;
+            List<String> groupBy = query.getAggregateBy();
+            String countMember = query.getAggregateCount();
+            for (String name: groupBy) {
+                if (deltaType.getMemberIndex(name) < 0 || name.equals(countMember)) {
+                    return Result.fail(Status.of(StatusCode.CLIENT_INTERNAL_ERROR, Issue.of(
+                            "Group column " + name + " is not a member of parameter", Issue.Severity.ERROR
+                    )));
+                }
+            }
+
+            Map<String, Type> sourceMembers = new HashMap<>();
+            for (int idx = 0; idx < deltaType.getMembersCount(); idx += 1) {
+                String name = deltaType.getMemberName(idx);
+                Type type = deltaType.getMemberType(idx);
+                if (name.equals(countMember)) {
+                    if (!Aggregator.isLong(type)) {
+                        return Result.fail(Status.of(StatusCode.CLIENT_INTERNAL_ERROR, Issue.of(
+                                "Count member " + name + " must have Int64 or Uint64 type instead of " + type,
+                                Issue.Severity.ERROR
+                        )));
+                    }
+                    continue;
+                }
+                // sums of narrow integers would overflow the member of folded row
+                if (!groupBy.contains(name) && !Aggregator.isLong(type) && !Aggregator.isDouble(type)) {
+                    return Result.fail(Status.of(StatusCode.CLIENT_INTERNAL_ERROR, Issue.of(
+                            "Member " + name + " is not a group column and must have Int64, Uint64, Float or Double "
+                                    + "type instead of " + type,
+                            Issue.Severity.ERROR
+                    )));
+                }
+                sourceMembers.put(name, type);
+            }
+
+            if (countMember != null && deltaType.getMemberIndex(countMember) < 0) {
+                return Result.fail(Status.of(StatusCode.CLIENT_INTERNAL_ERROR, Issue.of(
+                        "Count member " + countMember + " is not a member of parameter", Issue.Severity.ERROR
+                )));
+            }
+
+            StructType sourceType = StructType.of(sourceMembers);
+            Aggregator aggregator = new Aggregator(sourceType, deltaType, groupBy, countMember);
+            // folded rows cannot be a part of script, rows of other queries are not folded
+            return Result.success(new Target(YqlQuery.aggregate(target.query, sourceType, aggregator, keys, cdc),
+                    null, target.paramName, sourceType));
+        }
+
+        private Result<Target> createTarget(String text, XmlConfig.Query query, boolean keysOnly, List<String> keys,
+                String paramName, StructType structType) {
             if (query.getActionTable() != null && !query.getActionTable().trim().isEmpty()) {
                 String actionTable = query.getActionTable().trim();
                 String action = query.getActionMode();
+                if ("bulkUpsert".equalsIgnoreCase(action)) {
+                    if (keysOnly) { // bulk upsert of erased keys would restore deleted rows
+                        return Result.fail(Status.of(StatusCode.CLIENT_INTERNAL_ERROR, Issue.of(
+                                "Action bulkUpsert cannot be used for delete actions", Issue.Severity.ERROR
+                        )));
+                    }
+                    // rows of parameter are written as is, so the query must not change them
+                    if (!isPlainProjection(text, paramName, structType)) {
+                        return Result.fail(Status.of(StatusCode.CLIENT_INTERNAL_ERROR, Issue.of(
+                                "Action bulkUpsert requires the query of DECLARE and SELECT of all members or * FROM "
+                                        + "AS_TABLE(" + paramName + ") without other clauses", Issue.Severity.ERROR
+                        )));
+                    }
+                    return validateBulkUpsert(actionTable, structType, keys, paramName);
+                }
                 if ("upsertInto".equalsIgnoreCase(action)) {
-                    String execute = "UPSERT INTO `" + actionTable + "` ";
-                    return Result.success(YqlQuery.readAndExecuteYql(text, execute, keys, paramName, structType, cdc));
+                    return validateAction(text, "UPSERT INTO `" + actionTable + "` ", keys, paramName, structType);
                 }
                 if ("deleteFrom".equalsIgnoreCase(action)) {
-                    String execute = "DELETE FROM `" + actionTable + "` ON ";
-                    return Result.success(YqlQuery.readAndExecuteYql(text, execute, keys, paramName, structType, cdc));
+                    return validateAction(text, "DELETE FROM `" + actionTable + "` ON ", keys, paramName, structType);
                 }
                 if ("updateOn".equalsIgnoreCase(action)) {
-                    String execute = "UPDATE `" + actionTable + "` ON ";
-                    return Result.success(YqlQuery.readAndExecuteYql(text, execute, keys, paramName, structType, cdc));
+                    return validateAction(text, "UPDATE `" + actionTable + "` ON ", keys, paramName, structType);
                 }
                 if ("insertInto".equalsIgnoreCase(action)) {
-                    String execute = "INSERT INTO `" + actionTable + "` ";
-                    return Result.success(YqlQuery.readAndExecuteYql(text, execute, keys, paramName, structType, cdc));
+                    return validateAction(text, "INSERT INTO `" + actionTable + "` ", keys, paramName, structType);
                 }
 
                 return Result.fail(Status.of(StatusCode.CLIENT_INTERNAL_ERROR, Issue.of(
-                        "Uknown actionName " + action + ", expected upsertInto/deleteFrom/updateOn/insertInto",
+                        "Unknown actionName " + action
+                                + ", expected upsertInto/deleteFrom/updateOn/insertInto/bulkUpsert",
                         Issue.Severity.ERROR
                 )));
             }
 
-            return Result.success(YqlQuery.executeYql(text, keys, paramName, structType, cdc));
+            return Result.success(new Target(YqlQuery.executeYql(text, keys, paramName, structType, cdc),
+                    text, paramName, structType));
+        }
+
+        private Result<Target> validateAction(String text, String execute, List<String> keys,
+                String paramName, StructType structType) {
+            // the select and the action are executed server-side as one statement when it is possible
+            String combined = combineWithAction(text, execute);
+            if (combined != null) {
+                Result<DataQuery> parsed = ydb.parseQuery(combined);
+                if (parsed.isSuccess()) {
+                    return Result.success(new Target(YqlQuery.executeYql(combined, keys, paramName, structType, cdc),
+                            combined, paramName, structType));
+                }
+                logger.warn("Can't combine query with action for consumer {}, got status {}", cdc.getConsumer(),
+                        parsed.getStatus());
+            }
+
+            logger.info("query of consumer {} will be executed as select and separated action", cdc.getConsumer());
+            Supplier<YqlQuery> query = YqlQuery.readAndExecuteYql(text, execute, keys, paramName, structType, cdc);
+            return Result.success(new Target(query, null, paramName, structType));
+        }
+
+        @SuppressWarnings("null")
+        private Result<Target> validateBulkUpsert(String actionTable, StructType structType,
+                List<String> keys, String paramName) {
+            String tablePath = ydb.expandPath(actionTable);
+            Result<TableDescription> descRes = ydb.describeTable(tablePath);
+            if (!descRes.isSuccess()) {
+                logger.error("Can't describe table {} for bulk upsert, got status {}", tablePath, descRes.getStatus());
+                return descRes.map(null);
+            }
+            TableDescription target = descRes.getValue();
+
+            Map<String, Type> targetTypes = new HashMap<>();
+            for (TableColumn column: target.getColumns()) {
+                targetTypes.put(column.getName(), column.getType());
+            }
+
+            // rows of parameter are written as is, so every member must be a column of the target table
+            for (int idx = 0; idx < structType.getMembersCount(); idx += 1) {
+                String name = structType.getMemberName(idx);
+                Type type = structType.getMemberType(idx);
+                Type targetType = targetTypes.get(name);
+                if (targetType == null) {
+                    return Result.fail(Status.of(StatusCode.CLIENT_INTERNAL_ERROR, Issue.of(
+                            "Target table " + actionTable + " doesn't have column " + name, Issue.Severity.ERROR
+                    )));
+                }
+
+                boolean compatible = type.equals(targetType) || (targetType.getKind() == Type.Kind.OPTIONAL
+                        && type.equals(targetType.unwrapOptional()));
+                if (!compatible) {
+                    return Result.fail(Status.of(StatusCode.CLIENT_INTERNAL_ERROR, Issue.of(
+                            "Target table column " + name + " has type " + targetType + " instead of " + type,
+                            Issue.Severity.ERROR
+                    )));
+                }
+            }
+
+            for (String key: target.getPrimaryKeys()) {
+                if (structType.getMemberIndex(key) < 0) {
+                    return Result.fail(Status.of(StatusCode.CLIENT_INTERNAL_ERROR, Issue.of(
+                            "Primary key column " + key + " of target table " + actionTable + " is missed",
+                            Issue.Severity.ERROR
+                    )));
+                }
+            }
+
+            return Result.success(new Target(YqlQuery.bulkUpsert(ydb, tablePath, keys, structType, cdc),
+                    null, paramName, structType));
+        }
+    }
+
+    private static class Target {
+        private final Supplier<YqlQuery> query;
+        // text of query executed as is, it can be a part of script; null for other queries
+        private final String script;
+        private final String paramName;
+        private final StructType type;
+
+        Target(Supplier<YqlQuery> query, String script, String paramName, StructType type) {
+            this.query = query;
+            this.script = script;
+            this.paramName = paramName;
+            this.type = type;
+        }
+
+        Supplier<YqlQuery> getQuery() {
+            return query;
         }
     }
 
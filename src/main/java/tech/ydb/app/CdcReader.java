@@ -1,6 +1,10 @@
 package tech.ydb.app;
 
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,8 +34,11 @@ public class CdcReader implements AutoCloseable {
 
     private final AsyncReader reader;
     private final YqlWriter writer;
+    // the handler of paused partition waits for its resuming, so every partition may need its own thread; threads
+    // are daemons and their waits are interrupted by shutdownNow, so paused handlers never hold the shutdown
+    private final ExecutorService handlerExecutor;
 
-    public CdcReader(YdbService ydb, YqlWriter writer, String consumer, String changefeed) {
+    public CdcReader(YdbService ydb, YqlWriter writer, String consumer, String changefeed, long maxMemoryUsageBytes) {
         this.id = UUID.randomUUID().toString();
         this.consumer = consumer;
         this.changefeed = changefeed;
@@ -40,13 +47,20 @@ public class CdcReader implements AutoCloseable {
         ReaderSettings rs = ReaderSettings.newBuilder()
                 .setConsumerName(consumer)
                 .setDecompressionExecutor(Runnable::run)   // CDC doesn't use compression, skip thread switching
-                .setMaxMemoryUsageBytes(200 * 1024 * 1024) // 200 Mb
+                .setMaxMemoryUsageBytes(maxMemoryUsageBytes)
                 .addTopic(TopicReadSettings.newBuilder()
                         .setPath(ydb.expandPath(changefeed))
                         .build())
                 .build();
+        AtomicInteger threadIdx = new AtomicInteger();
+        this.handlerExecutor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "reader-" + consumer + "[" + threadIdx.incrementAndGet() + "]");
+            thread.setDaemon(true);
+            return thread;
+        });
         ReadEventHandlersSettings rehs = ReadEventHandlersSettings.newBuilder()
                 .setEventHandler(new CdcEventHandler())
+                .setExecutor(handlerExecutor)
                 .build();
 
         this.reader = ydb.createReader(rs, rehs);
@@ -59,8 +73,9 @@ public class CdcReader implements AutoCloseable {
 
     @Override
     public void close() {
-        writer.close();
+        writer.close(); // resumes all paused partitions, the next handlers are not paused anymore
         reader.shutdown();
+        handlerExecutor.shutdownNow();
     }
 
     public String getId() {
@@ -84,6 +99,7 @@ public class CdcReader implements AutoCloseable {
         public void onStartPartitionSession(StartPartitionSessionEvent ev) {
             logger.info("Topic[{}] session {} onStart with last committed offset {}",
                     ev.getPartitionSession().getPath(), ev.getPartitionSession().getId(), ev.getCommittedOffset());
+            writer.startPartitionSession(ev.getPartitionSession(), ev.getCommittedOffset());
             ev.confirm();
         }
 
@@ -98,19 +114,29 @@ public class CdcReader implements AutoCloseable {
         public void onPartitionSessionClosed(PartitionSessionClosedEvent ev) {
             logger.info("Topic[{}] session {} onClosed",
                     ev.getPartitionSession().getPath(), ev.getPartitionSession().getId());
+            writer.closePartitionSession(ev.getPartitionSession().getId());
         }
 
         @Override
         public void onMessages(DataReceivedEvent event) {
-            for (Message msg: event.getMessages()) {
+            List<Message> messages = event.getMessages();
+            for (Message msg: messages) {
                 writer.addMessage(event.getPartitionSession().getPartitionId(), msg);
             }
+            if (!messages.isEmpty()) {
+                writer.readMessages(event.getPartitionSession().getId(), messages.get(messages.size() - 1).getOffset());
+            }
+
+            // the reader doesn't deliver next messages of the partition and doesn't release their memory until the
+            // handler returns, other partitions are handled by other threads of the executor
+            writer.getFlowControl().awaitResumed(event.getPartitionSession().getId());
         }
 
         @Override
         public void onCommitResponse(CommitOffsetAcknowledgementEvent event) {
             logger.trace("committed offset {} in topic {}[partition {}]",
                     event.getCommittedOffset(), changefeed, event.getPartitionSession().getPartitionId());
+            writer.committed(event.getPartitionSession().getId(), event.getCommittedOffset());
         }
     }
 }
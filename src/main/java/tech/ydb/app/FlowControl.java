@@ -0,0 +1,164 @@
+package tech.ydb.app;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import tech.ydb.topic.read.Message;
+
+/**
+ * Tracks size of messages which are read from the topic but not taken by writers yet. Reading of the partition is
+ * paused while its buffered messages exceed the limit, the handler of the topic reader waits for resuming, so the
+ * reader doesn't receive next messages of this partition. Only the handler thread of the paused partition is
+ * blocked, other partitions are read as usual. Partitions are tracked from the start to the close of their sessions,
+ * after {@link #close()} nothing is paused.
+ *
+ * @author Aleksandr Gorshenin
+ */
+public class FlowControl {
+    private static final CompletableFuture<Void> RESUMED = CompletableFuture.completedFuture(null);
+
+    private final long maxPartitionBytes;
+    private final Map<Long, Partition> partitions = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    public FlowControl(long maxPartitionBytes) {
+        this.maxPartitionBytes = maxPartitionBytes;
+    }
+
+    public void startPartitionSession(long partitionSessionId) {
+        if (!closed) {
+            partitions.putIfAbsent(partitionSessionId, new Partition());
+        }
+    }
+
+    public void acquire(Message msg) {
+        Partition partition = partitions.get(msg.getPartitionSession().getId());
+        if (partition == null) { // session is already closed
+            return;
+        }
+        partition.messages.incrementAndGet();
+        partition.bytes.addAndGet(msg.getData().length);
+    }
+
+    public void release(Message msg) {
+        Partition partition = partitions.get(msg.getPartitionSession().getId());
+        if (partition == null) {
+            return;
+        }
+        partition.messages.decrementAndGet();
+        if (partition.bytes.addAndGet(-msg.getData().length) <= maxPartitionBytes) {
+            partition.resume();
+        }
+    }
+
+    /**
+     * Returns future which is completed when the partition can receive next messages.
+     *
+     * @param partitionSessionId id of the partition session
+     * @return future of resuming of the partition
+     */
+    public CompletableFuture<Void> resumed(long partitionSessionId) {
+        Partition partition = partitions.get(partitionSessionId);
+        if (closed || partition == null || partition.bytes.get() <= maxPartitionBytes) {
+            return RESUMED;
+        }
+        return partition.pause();
+    }
+
+    /**
+     * Waits until the partition can receive next messages. The wait is interrupted on the shutdown of the handler
+     * executor.
+     *
+     * @param partitionSessionId id of the partition session
+     */
+    public void awaitResumed(long partitionSessionId) {
+        try {
+            resumed(partitionSessionId).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            // the future is never completed exceptionally
+        }
+    }
+
+    public void closePartitionSession(long partitionSessionId) {
+        Partition partition = partitions.remove(partitionSessionId);
+        if (partition != null) {
+            partition.resume();
+        }
+    }
+
+    public void close() {
+        closed = true;
+        partitions.values().forEach(Partition::resume);
+    }
+
+    public long getBufferedBytes() {
+        long bytes = 0;
+        for (Partition partition: partitions.values()) {
+            bytes += partition.bytes.get();
+        }
+        return bytes;
+    }
+
+    public long getBufferedBytes(long partitionSessionId) {
+        Partition partition = partitions.get(partitionSessionId);
+        return partition != null ? partition.bytes.get() : 0;
+    }
+
+    public long getBufferedMessages(long partitionSessionId) {
+        Partition partition = partitions.get(partitionSessionId);
+        return partition != null ? partition.messages.get() : 0;
+    }
+
+    public boolean isPaused(long partitionSessionId) {
+        Partition partition = partitions.get(partitionSessionId);
+        return partition != null && partition.waiter != null;
+    }
+
+    public int getPausedCount() {
+        int count = 0;
+        for (Partition partition: partitions.values()) {
+            if (partition.waiter != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private class Partition {
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong messages = new AtomicLong();
+        private volatile CompletableFuture<Void> waiter = null;
+
+        synchronized CompletableFuture<Void> pause() {
+            if (waiter == null) {
+                waiter = new CompletableFuture<>();
+            }
+            CompletableFuture<Void> paused = waiter;
+            // messages may be released or flow control may be closed before the waiter is published
+            if (closed || bytes.get() <= maxPartitionBytes) {
+                resume();
+            }
+            return paused;
+        }
+
+        void resume() {
+            if (waiter == null) {
+                return;
+            }
+
+            CompletableFuture<Void> paused;
+            synchronized (this) {
+                paused = waiter;
+                waiter = null;
+            }
+            if (paused != null) {
+                paused.complete(null);
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package tech.ydb.app;
+
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Distribution of latencies in milliseconds over the sliding windows of last minutes. Values are recorded without
+ * locks, intervals are collected into the ring of one minute histograms. The window of N minutes contains exactly N
+ * last complete minutes, values of the current minute are included after its end.
+ *
+ * @author Aleksandr Gorshenin
+ */
+public class LatencyHistogram {
+    public static final int[] WINDOWS = new int[] { 1, 5, 15 };
+
+    private static final long MAX_VALUE_MS = TimeUnit.DAYS.toMillis(7);
+    private static final int SIGNIFICANT_DIGITS = 2;
+    private static final long MINUTE_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final long SNAPSHOT_TTL_MS = 1000;
+
+    private final Recorder recorder = new Recorder(MAX_VALUE_MS, SIGNIFICANT_DIGITS);
+    // the current minute and 15 previous full minutes
+    private final Histogram[] minutes = new Histogram[WINDOWS[WINDOWS.length - 1] + 1];
+    private int current = 0;
+    private Histogram recycled = null;
+    private volatile long nextRotation;
+
+    private Snapshot[] snapshots = null;
+    private long snapshotsAt = 0;
+
+    public LatencyHistogram() {
+        for (int idx = 0; idx < minutes.length; idx++) {
+            minutes[idx] = new Histogram(MAX_VALUE_MS, SIGNIFICANT_DIGITS);
+        }
+        this.nextRotation = System.currentTimeMillis() + MINUTE_MS;
+    }
+
+    public void record(long latencyMs) {
+        recorder.recordValue(Math.max(0, Math.min(latencyMs, MAX_VALUE_MS)));
+        if (System.currentTimeMillis() >= nextRotation) {
+            collect();
+        }
+    }
+
+    /**
+     * Returns percentiles of every window from {@link #WINDOWS}, snapshots are cached for one second.
+     *
+     * @return array of snapshots in order of windows
+     */
+    public synchronized Snapshot[] getSnapshots() {
+        long now = System.currentTimeMillis();
+        if (snapshots != null && now - snapshotsAt < SNAPSHOT_TTL_MS) {
+            return snapshots;
+        }
+
+        collect();
+        Snapshot[] result = new Snapshot[WINDOWS.length];
+        Histogram merged = new Histogram(MAX_VALUE_MS, SIGNIFICANT_DIGITS);
+        int window = 0;
+        // the current minute is not complete yet, so windows start from the previous minute
+        for (int minute = 1; minute < minutes.length && window < WINDOWS.length; minute++) {
+            merged.add(minutes[Math.floorMod(current - minute, minutes.length)]);
+            if (minute == WINDOWS[window]) {
+                result[window] = new Snapshot(WINDOWS[window], merged);
+                window++;
+            }
+        }
+
+        snapshots = result;
+        snapshotsAt = now;
+        return result;
+    }
+
+    private synchronized void collect() {
+        recycled = recorder.getIntervalHistogram(recycled);
+
+        long now = System.currentTimeMillis();
+        if (now - nextRotation >= minutes.length * MINUTE_MS) { // nothing was recorded for a long time
+            for (Histogram minute: minutes) {
+                minute.reset();
+            }
+            minutes[current].add(recycled);
+            nextRotation = now + MINUTE_MS;
+            return;
+        }
+
+        // values recorded before the rotation belong to the current minute
+        minutes[current].add(recycled);
+        while (now >= nextRotation) {
+            current = (current + 1) % minutes.length;
+            minutes[current].reset();
+            nextRotation += MINUTE_MS;
+        }
+    }
+
+    public static class Snapshot {
+        private final int minutes;
+        private final long count;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long p999;
+        private final long max;
+
+        Snapshot(int minutes, Histogram histogram) {
+            this.minutes = minutes;
+            this.count = histogram.getTotalCount();
+            this.p50 = histogram.getValueAtPercentile(50);
+            this.p90 = histogram.getValueAtPercentile(90);
+            this.p99 = histogram.getValueAtPercentile(99);
+            this.p999 = histogram.getValueAtPercentile(99.9);
+            this.max = histogram.getMaxValue();
+        }
+
+        public int getMinutes() {
+            return minutes;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP90() {
+            return p90;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getP999() {
+            return p999;
+        }
+
+        public long getMax() {
+            return max;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package tech.ydb.app;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import tech.ydb.topic.read.Message;
+import tech.ydb.topic.read.PartitionSession;
+
+/**
+ * Progress of one partition session. Offsets are updated by the reader and by the writer threads without locks and
+ * are read only by the status page. Both offsets are the next offsets to read and to commit, so the lag is their
+ * difference and it is zero for the partition which is fully written.
+ *
+ * @author Aleksandr Gorshenin
+ */
+public class PartitionStatus {
+    private final PartitionSession session;
+    private final String writer;
+
+    private final AtomicLong readOffset;
+    private final AtomicLong committedOffset;
+    private final AtomicLong lastWrited = new AtomicLong(0);
+    // written messages which commit is not acknowledged yet, with routing by key they may be not ordered by offsets
+    private final List<PendingCommit> pendingCommits = new ArrayList<>();
+
+    public PartitionStatus(PartitionSession session, long committedOffset, String writer) {
+        this.session = session;
+        this.writer = writer;
+        this.readOffset = new AtomicLong(committedOffset);
+        this.committedOffset = new AtomicLong(committedOffset);
+    }
+
+    public long getSessionId() {
+        return session.getId();
+    }
+
+    public long getPartitionId() {
+        return session.getPartitionId();
+    }
+
+    public String getPath() {
+        return session.getPath();
+    }
+
+    public String getWriter() {
+        return writer;
+    }
+
+    public long getReadOffset() {
+        return readOffset.get();
+    }
+
+    public long getCommittedOffset() {
+        return committedOffset.get();
+    }
+
+    /**
+     * @return count of messages which are read but not committed yet
+     */
+    public long getLag() {
+        return Math.max(0, readOffset.get() - committedOffset.get());
+    }
+
+    /**
+     * @return creation time of the last written message in milliseconds or zero if nothing is written yet
+     */
+    public long getLastWrited() {
+        return lastWrited.get();
+    }
+
+    public void read(long lastOffset) {
+        readOffset.accumulateAndGet(lastOffset + 1, Math::max);
+    }
+
+    /**
+     * Registers written messages of this partition session. Their end-to-end latency is recorded when the commit of
+     * the last of them is acknowledged.
+     *
+     * @param messages written messages in order of offsets
+     */
+    public void commitSent(List<Message> messages) {
+        PendingCommit pending = new PendingCommit(messages);
+        synchronized (pendingCommits) {
+            pendingCommits.add(pending);
+        }
+    }
+
+    public void committed(long offset, LatencyHistogram createdLatency, LatencyHistogram writtenLatency) {
+        committedOffset.accumulateAndGet(offset, Math::max);
+
+        long now = System.currentTimeMillis();
+        synchronized (pendingCommits) {
+            Iterator<PendingCommit> it = pendingCommits.iterator();
+            while (it.hasNext()) {
+                PendingCommit pending = it.next();
+                if (pending.lastOffset < offset) { // committed offset is the next offset after committed messages
+                    for (int idx = 0; idx < pending.createdAt.length; idx++) {
+                        createdLatency.record(now - pending.createdAt[idx]);
+                        writtenLatency.record(now - pending.writtenAt[idx]);
+                    }
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public void writed(long createdAtMs) {
+        lastWrited.accumulateAndGet(createdAtMs, Math::max);
+    }
+
+    private static class PendingCommit {
+        private final long lastOffset;
+        private final long[] createdAt;
+        private final long[] writtenAt;
+
+        PendingCommit(List<Message> messages) {
+            this.lastOffset = messages.get(messages.size() - 1).getOffset();
+            this.createdAt = new long[messages.size()];
+            this.writtenAt = new long[messages.size()];
+            for (int idx = 0; idx < messages.size(); idx++) {
+                createdAt[idx] = messages.get(idx).getCreatedAt().toEpochMilli();
+                writtenAt[idx] = messages.get(idx).getWrittenAt().toEpochMilli();
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package tech.ydb.app;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import tech.ydb.topic.read.DeferredCommitter;
+import tech.ydb.topic.read.Message;
+
+/**
+ * Tracks messages of one partition session which are spread between several writers. The offset of message is
+ * committed only when all messages read before it are written.
+ *
+ * @author Aleksandr Gorshenin
+ */
+public class PartitionTracker {
+    private final ArrayDeque<Message> pending = new ArrayDeque<>();
+    private final Set<Long> written = new HashSet<>();
+
+    public synchronized void register(Message msg) {
+        pending.add(msg);
+    }
+
+    public synchronized void written(List<Message> messages) {
+        for (Message msg: messages) {
+            written.add(msg.getOffset());
+        }
+
+        DeferredCommitter committer = DeferredCommitter.newInstance();
+        while (!pending.isEmpty() && written.remove(pending.peek().getOffset())) {
+            committer.add(pending.poll());
+        }
+        // commit is asynchronous, keep it under the lock to send commits in order of offsets
+        committer.commit();
+    }
+}
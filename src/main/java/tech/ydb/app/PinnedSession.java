@@ -0,0 +1,220 @@
+package tech.ydb.app;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tech.ydb.common.transaction.TxMode;
+import tech.ydb.core.Result;
+import tech.ydb.core.Status;
+import tech.ydb.core.StatusCode;
+import tech.ydb.query.QueryClient;
+import tech.ydb.query.QuerySession;
+import tech.ydb.query.QueryStream;
+import tech.ydb.query.result.QueryInfo;
+import tech.ydb.query.result.QueryStats;
+import tech.ydb.query.settings.ExecuteQuerySettings;
+import tech.ydb.query.settings.QueryStatsMode;
+import tech.ydb.query.tools.QueryReader;
+import tech.ydb.table.query.Params;
+
+/**
+ * Query session owned by one writer thread. The session is kept between batches and is recreated only after
+ * session errors or long idle periods.
+ *
+ * @author Aleksandr Gorshenin
+ */
+public class PinnedSession implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(YqlWriter.class); // use logger of YdlWriter
+
+    private static final Duration CREATE_TIMEOUT = Duration.ofSeconds(5);
+    // session which wasn't used for long time is returned to the pool, pool keeps alive its idle sessions
+    private static final long MAX_IDLE_MS = 60_000L;
+
+    private final QueryClient client;
+    private final String owner;
+
+    private QuerySession session = null;
+    private long lastUsedAt = 0;
+    // statistics are requested only for the sampled batches
+    private QueryStatsMode statsMode = QueryStatsMode.NONE;
+    private final List<QueryStats> stats = new ArrayList<>();
+
+    private volatile String sessionId = null;
+    private volatile Instant sessionCreatedAt = null;
+    private volatile long createLatencyMs = 0;
+    private volatile long queryLatencyMs = 0;
+    private final AtomicLong createdCount = new AtomicLong();
+
+    public PinnedSession(QueryClient client, String owner) {
+        this.client = client;
+        this.owner = owner;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public Instant getSessionCreatedAt() {
+        return sessionCreatedAt;
+    }
+
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    public long getCreateLatencyMs() {
+        return createLatencyMs;
+    }
+
+    public long getQueryLatencyMs() {
+        return queryLatencyMs;
+    }
+
+    /**
+     * Requests statistics for the next queries of the session, statistics are collected until
+     * {@link #takeStats() } is called.
+     *
+     * @param mode stats mode of queries
+     */
+    public void collectStats(QueryStatsMode mode) {
+        this.statsMode = mode;
+        this.stats.clear();
+    }
+
+    public List<QueryStats> takeStats() {
+        List<QueryStats> collected = new ArrayList<>(stats);
+        this.statsMode = QueryStatsMode.NONE;
+        this.stats.clear();
+        return collected;
+    }
+
+    public Status executeYqlQuery(String query, Params params, int timeoutSeconds) {
+        Status status = tryExecute(query, params, timeoutSeconds);
+        if (isBrokenSession(status)) { // transparent retry on the new session
+            status = tryExecute(query, params, timeoutSeconds);
+        }
+        return status;
+    }
+
+    @SuppressWarnings("null")
+    public Result<QueryReader> readYqlQuery(String query, Params params, int timeoutSeconds) {
+        Result<QueryReader> res = tryRead(query, params, timeoutSeconds);
+        if (isBrokenSession(res.getStatus())) { // transparent retry on the new session
+            res = tryRead(query, params, timeoutSeconds);
+        }
+        return res;
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+
+    private Status tryExecute(String query, Params params, int timeoutSeconds) {
+        Result<QuerySession> s = acquire();
+        if (!s.isSuccess()) {
+            return s.getStatus();
+        }
+
+        long startedAt = System.currentTimeMillis();
+        QueryStream stream = s.getValue().createQuery(query, TxMode.NONE, params, settings(timeoutSeconds));
+        Result<QueryInfo> res = stream.execute().join();
+        updateSession(res.getStatus(), startedAt);
+        if (res.isSuccess()) {
+            addStats(res.getValue());
+        }
+        return res.getStatus();
+    }
+
+    @SuppressWarnings("null")
+    private Result<QueryReader> tryRead(String query, Params params, int timeoutSeconds) {
+        Result<QuerySession> s = acquire();
+        if (!s.isSuccess()) {
+            return s.map(null);
+        }
+
+        long startedAt = System.currentTimeMillis();
+        QueryStream stream = s.getValue().createQuery(query, TxMode.SNAPSHOT_RO, params, settings(timeoutSeconds));
+        Result<QueryReader> res = QueryReader.readFrom(stream).join();
+        updateSession(res.getStatus(), startedAt);
+        if (res.isSuccess()) {
+            addStats(res.getValue().getQueryInfo());
+        }
+        return res;
+    }
+
+    private Result<QuerySession> acquire() {
+        long now = System.currentTimeMillis();
+        if (session != null && now - lastUsedAt > MAX_IDLE_MS) {
+            logger.debug("{} release session {} after {} ms of idle", owner, sessionId, now - lastUsedAt);
+            release();
+        }
+
+        if (session == null) {
+            Result<QuerySession> created = client.createSession(CREATE_TIMEOUT).join();
+            createLatencyMs = System.currentTimeMillis() - now;
+            if (!created.isSuccess()) {
+                logger.warn("{} can't create session, got status {}", owner, created.getStatus());
+                return created;
+            }
+
+            session = created.getValue();
+            sessionId = session.getId();
+            sessionCreatedAt = Instant.now();
+            createdCount.incrementAndGet();
+            logger.debug("{} pinned session {}", owner, sessionId);
+        }
+
+        return Result.success(session);
+    }
+
+    private void updateSession(Status status, long startedAt) {
+        lastUsedAt = System.currentTimeMillis();
+        queryLatencyMs = lastUsedAt - startedAt;
+        if (isBrokenSession(status) || status.getCode().isTransportError()) {
+            logger.debug("{} drop session {} with status {}", owner, sessionId, status);
+            release();
+        }
+    }
+
+    private void release() {
+        if (session != null) {
+            session.close();
+            session = null;
+            sessionId = null;
+            sessionCreatedAt = null;
+        }
+    }
+
+    private void addStats(QueryInfo info) {
+        if (info != null && info.hasStats()) {
+            stats.add(info.getStats());
+        }
+    }
+
+    private ExecuteQuerySettings settings(int timeoutSeconds) {
+        ExecuteQuerySettings.Builder settings = ExecuteQuerySettings.newBuilder();
+        if (timeoutSeconds > 0) {
+            settings.withRequestTimeout(Duration.ofSeconds(timeoutSeconds));
+        }
+        if (statsMode != QueryStatsMode.NONE) {
+            settings.withStatsMode(statsMode);
+        }
+        return settings.build();
+    }
+
+    private static boolean isBrokenSession(Status status) {
+        StatusCode code = status.getCode();
+        return code == StatusCode.BAD_SESSION || code == StatusCode.SESSION_EXPIRED || code == StatusCode.SESSION_BUSY;
+    }
+}
@@ -0,0 +1,150 @@
+package tech.ydb.app;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tech.ydb.core.Status;
+import tech.ydb.core.StatusCode;
+import tech.ydb.table.values.ListType;
+import tech.ydb.table.values.OptionalType;
+import tech.ydb.table.values.PrimitiveType;
+import tech.ydb.table.values.PrimitiveValue;
+import tech.ydb.table.values.StructType;
+import tech.ydb.table.values.Value;
+import tech.ydb.topic.read.Message;
+
+/**
+ * Storage of messages which cannot be written. Such messages are always logged, besides that they can be appended to
+ * the local file as JSON lines and written to the YDB table. Offsets of quarantined messages are committed as usual.
+ *
+ * @author Aleksandr Gorshenin
+ */
+public class Quarantine {
+    private static final Logger logger = LoggerFactory.getLogger(YqlWriter.class); // use logger of YdlWriter
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // statuses caused by the data of rows, retrying of the same rows cannot fix them; BAD_REQUEST and GENERIC_ERROR
+    // are also returned for errors of the query itself, so they are retried as systemic errors
+    private static final Set<StatusCode> ROW_ERRORS = EnumSet.of(
+            StatusCode.PRECONDITION_FAILED,
+            StatusCode.ALREADY_EXISTS
+    );
+
+    private static final StructType TABLE_ROW = StructType.of(Map.of(
+            "changefeed", PrimitiveType.Text,
+            "consumer", PrimitiveType.Text,
+            "partition", PrimitiveType.Uint64,
+            "offset", PrimitiveType.Uint64,
+            "created_at", PrimitiveType.Timestamp,
+            "quarantined_at", PrimitiveType.Timestamp,
+            "writer", PrimitiveType.Text,
+            "error", PrimitiveType.Text,
+            "row", OptionalType.of(PrimitiveType.Text),
+            "message", PrimitiveType.Text
+    ));
+
+    private final YdbService ydb;
+    private final String changefeed;
+    private final String consumer;
+    private final Path file;
+    private final String tablePath;
+    private final int timeoutSeconds;
+
+    private final AtomicLong count = new AtomicLong();
+
+    public Quarantine(YdbService ydb, XmlConfig.Cdc config) {
+        this.ydb = ydb;
+        this.changefeed = config.getChangefeed();
+        this.consumer = config.getConsumer();
+        this.file = config.getQuarantineFile() != null ? Paths.get(config.getQuarantineFile()) : null;
+        this.tablePath = config.getQuarantineTable() != null ? ydb.expandPath(config.getQuarantineTable()) : null;
+        this.timeoutSeconds = config.getTimeoutSeconds();
+    }
+
+    /**
+     * Checks if the failed batch may be fixed by the removing of some rows. Other errors, like unavailability of
+     * YDB or scheme errors, are retried until success.
+     *
+     * @param status status of failed execution
+     * @return true if the error is caused by the data of rows
+     */
+    public static boolean isRowError(Status status) {
+        return ROW_ERRORS.contains(status.getCode());
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public void add(String writer, Message msg, Value<?> row, String error) {
+        count.incrementAndGet();
+        String data = new String(msg.getData(), StandardCharsets.UTF_8);
+        String rowText = row != null ? row.toString() : null;
+        long partitionId = msg.getPartitionSession().getPartitionId();
+
+        logger.error("quarantined message of changefeed {}, consumer {}, partition {}, offset {} with error {}: {}",
+                changefeed, consumer, partitionId, msg.getOffset(), error, data);
+
+        if (file != null) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("changefeed", changefeed);
+            entry.put("consumer", consumer);
+            entry.put("partition", partitionId);
+            entry.put("offset", msg.getOffset());
+            entry.put("createdAt", msg.getCreatedAt().toString());
+            entry.put("quarantinedAt", Instant.now().toString());
+            entry.put("writer", writer);
+            entry.put("error", error);
+            entry.put("row", rowText);
+            entry.put("message", data);
+            writeFile(entry);
+        }
+
+        if (tablePath != null) {
+            Value<?> value = TABLE_ROW.newValue(Map.of(
+                    "changefeed", PrimitiveValue.newText(changefeed),
+                    "consumer", PrimitiveValue.newText(consumer),
+                    "partition", PrimitiveValue.newUint64(partitionId),
+                    "offset", PrimitiveValue.newUint64(msg.getOffset()),
+                    "created_at", PrimitiveValue.newTimestamp(msg.getCreatedAt()),
+                    "quarantined_at", PrimitiveValue.newTimestamp(Instant.now()),
+                    "writer", PrimitiveValue.newText(writer),
+                    "error", PrimitiveValue.newText(error),
+                    "row", rowText != null ? PrimitiveValue.newText(rowText).makeOptional()
+                            : OptionalType.of(PrimitiveType.Text).emptyValue(),
+                    "message", PrimitiveValue.newText(data)
+            ));
+            Status status = ydb.bulkUpsert(tablePath, ListType.of(TABLE_ROW).newValue(List.of(value)),
+                    timeoutSeconds);
+            if (!status.isSuccess()) {
+                logger.error("cannot write quarantined message to table {}: {}", tablePath, status);
+            }
+        }
+    }
+
+    private synchronized void writeFile(Map<String, Object> entry) {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(MAPPER.writeValueAsString(entry));
+            out.write('\n');
+        } catch (IOException ex) {
+            logger.error("cannot write quarantined message to file {}", file, ex);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package tech.ydb.app;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * Filter of cdc messages which is evaluated by the parser before any value of the row is built. The expression
+ * supports comparisons {@code = != <> < <= > >=} of columns with literals, {@code IN} and {@code NOT IN} lists,
+ * {@code IS NULL} and {@code IS NOT NULL} checks combined with {@code AND}, {@code OR}, {@code NOT} and parentheses.
+ * Literals are strings in single quotes, numbers, {@code TRUE} and {@code FALSE}. Comparison with null or with a
+ * value of other type is false.
+ *
+ * @author Aleksandr Gorshenin
+ */
+public class RowFilter {
+    private final Predicate predicate;
+    private final Map<String, Integer> columns;
+    // index of referenced column for every column of the primary key, -1 if column is not used
+    private final int[] keyColumns;
+    private final boolean keysOnly;
+
+    private RowFilter(Predicate predicate, Map<String, Integer> columns, List<String> primaryKey) {
+        this.predicate = predicate;
+        this.columns = columns;
+        this.keyColumns = new int[primaryKey.size()];
+        int keysCount = 0;
+        for (int idx = 0; idx < primaryKey.size(); idx++) {
+            Integer column = columns.get(primaryKey.get(idx));
+            keyColumns[idx] = column != null ? column : -1;
+            keysCount += column != null ? 1 : 0;
+        }
+        this.keysOnly = keysCount == columns.size();
+    }
+
+    /**
+     * Compiles the filter expression.
+     *
+     * @param expression text of filter
+     * @param primaryKey columns of the primary key of the source table in order of the key
+     * @return compiled filter
+     * @throws IllegalArgumentException if expression is not valid
+     */
+    public static RowFilter compile(String expression, List<String> primaryKey) {
+        Compiler compiler = new Compiler(expression);
+        Predicate predicate = compiler.parseOr();
+        if (compiler.peek() != null) {
+            throw new IllegalArgumentException("Unexpected token " + compiler.peek() + " in filter " + expression);
+        }
+        return new RowFilter(predicate, compiler.columns, primaryKey);
+    }
+
+    /**
+     * @return names of columns used by the filter
+     */
+    public Set<String> getColumns() {
+        return columns.keySet();
+    }
+
+    /**
+     * @return true if the filter uses columns of the primary key
+     */
+    public boolean hasKeyColumns() {
+        for (int column: keyColumns) {
+            if (column >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return empty array of values of used columns, it is filled by the parser of the message
+     */
+    public Object[] newValues() {
+        return new Object[columns.size()];
+    }
+
+    /**
+     * @param keyIndex index of the value in the key array of the message
+     * @return index in the array of values or -1 if the column is not used
+     */
+    public int getKeyColumn(int keyIndex) {
+        return keyIndex < keyColumns.length ? keyColumns[keyIndex] : -1;
+    }
+
+    /**
+     * @param name name of the column in the update of the message
+     * @return index in the array of values or -1 if the column is not used
+     */
+    public int getColumn(String name) {
+        Integer column = columns.get(name);
+        return column != null ? column : -1;
+    }
+
+    /**
+     * Evaluates the filter on the values read from the message. Erases contain only the key, so they always pass the
+     * filter which uses other columns.
+     *
+     * @param values values of used columns
+     * @param erase true if the message is an erase
+     * @return true if message passes the filter
+     */
+    public boolean test(Object[] values, boolean erase) {
+        return (erase && !keysOnly) || predicate.test(values);
+    }
+
+    /**
+     * Reads the value of the current token without moving the parser, so the same token can be read by the query.
+     *
+     * @param parser parser at the value token
+     * @return value comparable with literals or null for nulls, objects and arrays
+     * @throws IOException if value cannot be read
+     */
+    public static Object readValue(JsonParser parser) throws IOException {
+        switch (parser.currentToken()) {
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDecimalValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            default:
+                return null;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compare(Object value, Object literal) {
+        return ((Comparable) value).compareTo(literal);
+    }
+
+    private static boolean isComparable(Object value, Object literal) {
+        return value != null && value.getClass() == literal.getClass();
+    }
+
+    @FunctionalInterface
+    private interface Predicate {
+        boolean test(Object[] values);
+    }
+
+    private static class Compiler {
+        private final String text;
+        private final List<String> tokens = new ArrayList<>();
+        private final Map<String, Integer> columns = new HashMap<>();
+        private int position = 0;
+
+        Compiler(String text) {
+            this.text = text;
+            tokenize();
+        }
+
+        String peek() {
+            return position < tokens.size() ? tokens.get(position) : null;
+        }
+
+        private String next() {
+            String token = peek();
+            if (token == null) {
+                throw new IllegalArgumentException("Unexpected end of filter " + text);
+            }
+            position++;
+            return token;
+        }
+
+        private boolean accept(String keyword) {
+            String token = peek();
+            if (token != null && token.equalsIgnoreCase(keyword)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String keyword) {
+            if (!accept(keyword)) {
+                throw new IllegalArgumentException("Expected " + keyword + " instead of " + peek()
+                        + " in filter " + text);
+            }
+        }
+
+        Predicate parseOr() {
+            Predicate left = parseAnd();
+            while (accept("OR")) {
+                Predicate first = left;
+                Predicate second = parseAnd();
+                left = values -> first.test(values) || second.test(values);
+            }
+            return left;
+        }
+
+        private Predicate parseAnd() {
+            Predicate left = parseNot();
+            while (accept("AND")) {
+                Predicate first = left;
+                Predicate second = parseNot();
+                left = values -> first.test(values) && second.test(values);
+            }
+            return left;
+        }
+
+        private Predicate parseNot() {
+            if (accept("NOT")) {
+                Predicate inner = parseNot();
+                return values -> !inner.test(values);
+            }
+            if (accept("(")) {
+                Predicate inner = parseOr();
+                expect(")");
+                return inner;
+            }
+            return parseComparison();
+        }
+
+        private Predicate parseComparison() {
+            String name = next();
+            if (name.startsWith("`") && name.endsWith("`") && name.length() > 1) {
+                name = name.substring(1, name.length() - 1);
+            } else if (!Character.isJavaIdentifierStart(name.charAt(0))) {
+                throw new IllegalArgumentException("Expected column name instead of " + name + " in filter " + text);
+            }
+            final int column = columns.computeIfAbsent(name, n -> columns.size());
+
+            if (accept("IS")) {
+                boolean not = accept("NOT");
+                expect("NULL");
+                return not ? values -> values[column] != null : values -> values[column] == null;
+            }
+
+            boolean not = accept("NOT");
+            if (accept("IN")) {
+                expect("(");
+                List<Object> literals = new ArrayList<>();
+                do {
+                    literals.add(parseLiteral());
+                } while (accept(","));
+                expect(")");
+                return values -> {
+                    Object value = values[column];
+                    if (value == null) {
+                        return false;
+                    }
+                    for (Object literal: literals) {
+                        if (isComparable(value, literal) && compare(value, literal) == 0) {
+                            return !not;
+                        }
+                    }
+                    return not;
+                };
+            }
+            if (not) {
+                throw new IllegalArgumentException("Expected IN after NOT in filter " + text);
+            }
+
+            String operator = next();
+            Object literal = parseLiteral();
+            switch (operator) {
+                case "=":
+                case "==":
+                    return values -> isComparable(values[column], literal) && compare(values[column], literal) == 0;
+                case "!=":
+                case "<>":
+                    return values -> isComparable(values[column], literal) && compare(values[column], literal) != 0;
+                case "<":
+                    return values -> isComparable(values[column], literal) && compare(values[column], literal) < 0;
+                case "<=":
+                    return values -> isComparable(values[column], literal) && compare(values[column], literal) <= 0;
+                case ">":
+                    return values -> isComparable(values[column], literal) && compare(values[column], literal) > 0;
+                case ">=":
+                    return values -> isComparable(values[column], literal) && compare(values[column], literal) >= 0;
+                default:
+                    throw new IllegalArgumentException("Unknown operator " + operator + " in filter " + text);
+            }
+        }
+
+        private Object parseLiteral() {
+            String token = next();
+            if (token.startsWith("'")) {
+                return token.substring(1, token.length() - 1).replace("''", "'");
+            }
+            if (token.equalsIgnoreCase("TRUE")) {
+                return Boolean.TRUE;
+            }
+            if (token.equalsIgnoreCase("FALSE")) {
+                return Boolean.FALSE;
+            }
+            try {
+                return new BigDecimal(token);
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Expected literal instead of " + token + " in filter " + text);
+            }
+        }
+
+        private void tokenize() {
+            int idx = 0;
+            while (idx < text.length()) {
+                char ch = text.charAt(idx);
+                if (Character.isWhitespace(ch)) {
+                    idx++;
+                } else if (ch == '\'') {
+                    int end = idx + 1;
+                    while (true) {
+                        end = text.indexOf('\'', end);
+                        if (end < 0) {
+                            throw new IllegalArgumentException("Unclosed string in filter " + text);
+                        }
+                        if (end + 1 < text.length() && text.charAt(end + 1) == '\'') { // escaped quote
+                            end += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    tokens.add(text.substring(idx, end + 1));
+                    idx = end + 1;
+                } else if (ch == '`') {
+                    int end = text.indexOf('`', idx + 1);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("Unclosed column name in filter " + text);
+                    }
+                    tokens.add(text.substring(idx, end + 1));
+                    idx = end + 1;
+                } else if ("(),".indexOf(ch) >= 0) {
+                    tokens.add(String.valueOf(ch));
+                    idx++;
+                } else if ("=!<>".indexOf(ch) >= 0) {
+                    int end = idx + 1;
+                    if (end < text.length() && "=>".indexOf(text.charAt(end)) >= 0) {
+                        end++;
+                    }
+                    tokens.add(text.substring(idx, end));
+                    idx = end;
+                } else {
+                    int end = idx;
+                    while (end < text.length() && (Character.isJavaIdentifierPart(text.charAt(end))
+                            || text.charAt(end) == '.' || text.charAt(end) == '-' || text.charAt(end) == '+')) {
+                        end++;
+                    }
+                    if (end == idx) {
+                        throw new IllegalArgumentException("Unexpected char " + ch + " in filter " + text);
+                    }
+                    tokens.add(text.substring(idx, end));
+                    idx = end;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package tech.ydb.app;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import tech.ydb.query.result.QueryStats;
+
+/**
+ * Bounded list of the slowest batches written by the reader in the last minutes. Execution statistics of YDB are
+ * present only for the batches sampled by the stats mode.
+ *
+ * @author Aleksandr Gorshenin
+ */
+public class SlowBatches {
+    private static final int MAX_SIZE = 32;
+    private static final long MAX_AGE_MS = TimeUnit.MINUTES.toMillis(15);
+
+    private final List<Batch> batches = new ArrayList<>(MAX_SIZE + 1);
+
+    public synchronized void add(Batch batch) {
+        removeExpired(batch.time);
+        if (batches.size() >= MAX_SIZE) {
+            Batch fastest = batches.stream().min(Comparator.comparingLong(Batch::getDurationMs)).get();
+            if (fastest.durationMs >= batch.durationMs) {
+                return;
+            }
+            batches.remove(fastest);
+        }
+        batches.add(batch);
+    }
+
+    /**
+     * @return batches of the last minutes in order of decreasing duration
+     */
+    public synchronized List<Batch> getBatches() {
+        removeExpired(System.currentTimeMillis());
+        List<Batch> result = new ArrayList<>(batches);
+        result.sort(Comparator.comparingLong(Batch::getDurationMs).reversed());
+        return result;
+    }
+
+    private void removeExpired(long now) {
+        batches.removeIf(b -> now - b.time > MAX_AGE_MS);
+    }
+
+    public static class Batch {
+        private final String writer;
+        private final long time;
+        private final int rows;
+        private final long durationMs;
+        private final int retries;
+        private final List<QueryStats> stats;
+
+        public Batch(String writer, int rows, long durationMs, int retries, List<QueryStats> stats) {
+            this.writer = writer;
+            this.time = System.currentTimeMillis();
+            this.rows = rows;
+            this.durationMs = durationMs;
+            this.retries = retries;
+            this.stats = stats;
+        }
+
+        public String getWriter() {
+            return writer;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        public int getRetries() {
+            return retries;
+        }
+
+        public List<QueryStats> getStats() {
+            return stats;
+        }
+    }
+}
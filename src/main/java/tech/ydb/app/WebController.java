@@ -1,7 +1,9 @@
 package tech.ydb.app;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -9,6 +11,7 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
 
 import tech.ydb.core.Status;
+import tech.ydb.query.result.QueryStats;
 
 /**
  *
@@ -37,6 +40,29 @@ public class WebController {
         return app.getReaders().stream().map(ReaderStatus::new).collect(Collectors.toList());
     }
 
+    @RequestMapping(path = "/status/partitions")
+    public List<PartitionInfo> partitions() {
+        List<PartitionInfo> partitions = new ArrayList<>();
+        for (CdcReader reader: app.getReaders()) {
+            YqlWriter writer = reader.getWriter();
+            for (PartitionStatus status: writer.getPartitions()) {
+                partitions.add(new PartitionInfo(reader, writer.getFlowControl(), status));
+            }
+        }
+        return partitions;
+    }
+
+    @RequestMapping(path = "/status/slow")
+    public List<SlowBatchInfo> slowBatches() {
+        List<SlowBatchInfo> batches = new ArrayList<>();
+        for (CdcReader reader: app.getReaders()) {
+            for (SlowBatches.Batch batch: reader.getWriter().getSlowBatches().getBatches()) {
+                batches.add(new SlowBatchInfo(reader, batch));
+            }
+        }
+        return batches;
+    }
+
     public static class Config {
         public final List<String> warnings;
         public final List<ReaderInfo> readers;
@@ -47,6 +73,81 @@ public class WebController {
         }
     }
 
+    public static class PartitionInfo {
+        public final String id;
+        public final String path;
+        public final long partitionId;
+        public final long sessionId;
+        public final String writer;
+        public final long readOffset;
+        public final long committedOffset;
+        public final long lag;
+        public final Long writed;
+        public final long bufferedMessages;
+        public final long bufferedBytes;
+        public final boolean paused;
+
+        public PartitionInfo(CdcReader reader, FlowControl flowControl, PartitionStatus status) {
+            this.id = reader.getId();
+            this.path = status.getPath();
+            this.partitionId = status.getPartitionId();
+            this.sessionId = status.getSessionId();
+            this.writer = status.getWriter();
+            this.readOffset = status.getReadOffset();
+            this.committedOffset = status.getCommittedOffset();
+            this.lag = status.getLag();
+            this.writed = status.getLastWrited() > 0 ? status.getLastWrited() : null;
+            this.bufferedMessages = flowControl.getBufferedMessages(status.getSessionId());
+            this.bufferedBytes = flowControl.getBufferedBytes(status.getSessionId());
+            this.paused = flowControl.isPaused(status.getSessionId());
+        }
+    }
+
+    public static class SlowBatchInfo {
+        public final String id;
+        public final String writer;
+        public final long time;
+        public final int rows;
+        public final long durationMs;
+        public final int retries;
+        public final List<QueryStatsInfo> stats;
+
+        public SlowBatchInfo(CdcReader reader, SlowBatches.Batch batch) {
+            this.id = reader.getId();
+            this.writer = batch.getWriter();
+            this.time = batch.getTime();
+            this.rows = batch.getRows();
+            this.durationMs = batch.getDurationMs();
+            this.retries = batch.getRetries();
+            this.stats = batch.getStats().stream().map(QueryStatsInfo::new).collect(Collectors.toList());
+        }
+    }
+
+    public static class QueryStatsInfo {
+        public final long totalDurationUs;
+        public final long totalCpuTimeUs;
+        public final long processCpuTimeUs;
+        public final Long compilationDurationUs;
+        public final Long compilationCpuTimeUs;
+        public final Boolean compilationFromCache;
+        public final long affectedShards;
+        // SDK doesn't provide access to the table stats of phase, text of phase contains rows and bytes of tables
+        public final List<String> phases;
+
+        public QueryStatsInfo(QueryStats stats) {
+            QueryStats.Compilation compilation = stats.getCompilationStats();
+
+            this.totalDurationUs = stats.getTotalDurationUs();
+            this.totalCpuTimeUs = stats.getTotalCpuTimeUs();
+            this.processCpuTimeUs = stats.getProcessCpuTimeUs();
+            this.compilationDurationUs = compilation != null ? compilation.getDurationUs() : null;
+            this.compilationCpuTimeUs = compilation != null ? compilation.getCpuTimeUs() : null;
+            this.compilationFromCache = compilation != null ? compilation.isFromCache() : null;
+            this.affectedShards = stats.getPhases().stream().mapToLong(QueryStats.QueryPhase::getAffectedShards).sum();
+            this.phases = stats.getPhases().stream().map(QueryStats.QueryPhase::toString).collect(Collectors.toList());
+        }
+    }
+
     public static class ReaderInfo {
         public final String id;
         public final String changefeed;
@@ -65,6 +166,14 @@ public class WebController {
         public final String status;
         public final Long readed;
         public final Long writed;
+        public final long coalesced;
+        public final long quarantined;
+        public final long bufferedBytes;
+        public final int pausedPartitions;
+        public final long queryCacheHits;
+        public final long queryCacheMisses;
+        public final Map<String, List<LatencyHistogram.Snapshot>> latency;
+        public final List<SessionStatus> sessions;
 
         public ReaderStatus(CdcReader reader) {
             this.id = reader.getId();
@@ -79,6 +188,37 @@ public class WebController {
 
             this.readed = lastReaded != null ? lastReaded.toEpochMilli() : null;
             this.writed = lastWrited != null ? lastWrited.toEpochMilli() : null;
+            this.coalesced = writer.getCoalescedCount();
+            this.quarantined = writer.getQuarantinedCount();
+            this.bufferedBytes = writer.getFlowControl().getBufferedBytes();
+            this.pausedPartitions = writer.getFlowControl().getPausedCount();
+            this.queryCacheHits = writer.getQueryCacheHits();
+            this.queryCacheMisses = writer.getQueryCacheMisses();
+            this.latency = Map.of(
+                    "created", List.of(writer.getCreatedLatency().getSnapshots()),
+                    "written", List.of(writer.getWrittenLatency().getSnapshots())
+            );
+            this.sessions = writer.getSessions().stream().map(SessionStatus::new).collect(Collectors.toList());
+        }
+    }
+
+    public static class SessionStatus {
+        public final String writer;
+        public final String sessionId;
+        public final Long sessionCreated;
+        public final long sessionsCount;
+        public final long createLatencyMs;
+        public final long queryLatencyMs;
+
+        public SessionStatus(PinnedSession session) {
+            Instant createdAt = session.getSessionCreatedAt();
+
+            this.writer = session.getOwner();
+            this.sessionId = session.getSessionId();
+            this.sessionCreated = createdAt != null ? createdAt.toEpochMilli() : null;
+            this.sessionsCount = session.getCreatedCount();
+            this.createLatencyMs = session.getCreateLatencyMs();
+            this.queryLatencyMs = session.getQueryLatencyMs();
         }
     }
 }
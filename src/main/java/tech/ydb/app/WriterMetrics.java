@@ -0,0 +1,147 @@
+package tech.ydb.app;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import tech.ydb.core.StatusCode;
+import tech.ydb.topic.read.Message;
+
+/**
+ * Metrics of one writer thread. All meters have tags of the changefeed, the consumer and the writer thread.
+ *
+ * @author Aleksandr Gorshenin
+ */
+public class WriterMetrics {
+    private final MeterRegistry registry;
+    private final Tags tags;
+
+    private final Counter messagesRead;
+    private final Counter messagesParsed;
+    private final Counter messagesSkipped;
+    private final Counter messagesFiltered;
+    private final Counter messagesWritten;
+    private final Counter messagesQuarantined;
+    private final DistributionSummary batchSize;
+    private final Timer executeLatency;
+    private final Timer commitLatency;
+    private final Timer lag;
+
+    public WriterMetrics(MeterRegistry registry, XmlConfig.Cdc config, String writer) {
+        this.registry = registry;
+        this.tags = Tags.of("changefeed", config.getChangefeed(), "consumer", config.getConsumer(), "writer", writer);
+
+        this.messagesRead = Counter.builder("cdc.messages.read")
+                .description("Messages received from the changefeed")
+                .tags(tags).register(registry);
+        this.messagesParsed = Counter.builder("cdc.messages.parsed")
+                .description("Messages parsed by the writer")
+                .tags(tags).register(registry);
+        this.messagesSkipped = Counter.builder("cdc.messages.skipped")
+                .description("Messages without configured query or unsupported messages")
+                .tags(tags).register(registry);
+        this.messagesFiltered = Counter.builder("cdc.messages.filtered")
+                .description("Messages dropped by the filter")
+                .tags(tags).register(registry);
+        this.messagesWritten = Counter.builder("cdc.messages.written")
+                .description("Messages written and committed")
+                .tags(tags).register(registry);
+        this.messagesQuarantined = Counter.builder("cdc.messages.quarantined")
+                .description("Messages which cannot be parsed or written")
+                .tags(tags).register(registry);
+        this.batchSize = DistributionSummary.builder("cdc.batch.size")
+                .description("Count of rows in executed batch")
+                .baseUnit("rows")
+                .publishPercentileHistogram()
+                .tags(tags).register(registry);
+        this.executeLatency = Timer.builder("cdc.execute.latency")
+                .description("Latency of one execution of batch query")
+                .publishPercentileHistogram()
+                .tags(tags).register(registry);
+        this.commitLatency = Timer.builder("cdc.commit.latency")
+                .description("Time from the flush of batch to the commit of its offsets")
+                .publishPercentileHistogram()
+                .tags(tags).register(registry);
+        this.lag = Timer.builder("cdc.lag")
+                .description("Time from the creation of the change to the commit of its offset")
+                .publishPercentileHistogram()
+                .tags(tags).register(registry);
+    }
+
+    public void registerQueue(Collection<?> queue) {
+        Gauge.builder("cdc.queue.depth", queue, Collection::size)
+                .description("Messages waiting for parsing")
+                .tags(tags).register(registry);
+    }
+
+    // registry keeps only weak reference to the source of function counter
+    public <T> void registerCounter(String name, String description, T source, ToDoubleFunction<T> value) {
+        FunctionCounter.builder(name, source, value)
+                .description(description)
+                .tags(tags).register(registry);
+    }
+
+    public <T> void registerGauge(String name, String description, T source, ToDoubleFunction<T> value) {
+        Gauge.builder(name, source, value)
+                .description(description)
+                .tags(tags).register(registry);
+    }
+
+    public void messageRead() {
+        messagesRead.increment();
+    }
+
+    public void messageParsed(boolean skipped) {
+        messagesParsed.increment();
+        if (skipped) {
+            messagesSkipped.increment();
+        }
+    }
+
+    public void messageFiltered() {
+        messagesFiltered.increment();
+    }
+
+    public void messageQuarantined() {
+        messagesQuarantined.increment();
+    }
+
+    public void batchWritten(int rows) {
+        batchSize.record(rows);
+    }
+
+    public void executed(long nanos) {
+        executeLatency.record(Duration.ofNanos(nanos));
+    }
+
+    public void retry(StatusCode code) {
+        Counter.builder("cdc.execute.retries")
+                .description("Retries of batch query by status code")
+                .tags(tags).tag("status", code.name())
+                .register(registry)
+                .increment();
+    }
+
+    public void batchCommitted(List<Message> messages, long flushedAtNanos) {
+        if (messages.isEmpty()) { // batch is committed by the next batch
+            return;
+        }
+        messagesWritten.increment(messages.size());
+        commitLatency.record(Duration.ofNanos(System.nanoTime() - flushedAtNanos));
+        // lag is recorded for every message, so the histogram is weighted by messages instead of batches
+        long now = System.currentTimeMillis();
+        for (Message msg: messages) {
+            lag.record(now - msg.getCreatedAt().toEpochMilli(), TimeUnit.MILLISECONDS);
+        }
+    }
+}
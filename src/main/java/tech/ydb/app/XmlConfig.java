@@ -17,6 +17,15 @@ import jakarta.xml.bind.annotation.XmlValue;
 public class XmlConfig {
     private static final int DEFAULT_BATCH_SIZE = 1000;
     private static final int DEFAULT_THREADS_COUNT = 1;
+    private static final int DEFAULT_INFLIGHT_BATCHES = 1;
+    private static final String DEFAULT_ROUTING = "partition";
+    private static final long DEFAULT_MAX_MEMORY_USAGE_BYTES = 200 * 1024 * 1024; // 200 Mb
+    private static final long DEFAULT_MAX_PARTITION_BYTES = 16 * 1024 * 1024; // 16 Mb
+    private static final String DEFAULT_STATS_MODE = "none";
+    private static final int DEFAULT_STATS_SAMPLING = 1;
+    private static final int DEFAULT_MIN_BATCH_SIZE = 10;
+    private static final int DEFAULT_TARGET_LATENCY_MS = 1000;
+    private static final String DEFAULT_FAN_OUT = "separate";
 
     @XmlElement(name = "cdc")
     private final List<Cdc> cdcs = new ArrayList<>();
@@ -42,6 +51,12 @@ public class XmlConfig {
         @XmlAttribute(name = "actionTable")
         private String actionTable;
 
+        @XmlAttribute(name = "aggregateBy")
+        private String aggregateBy;
+
+        @XmlAttribute(name = "aggregateCount")
+        private String aggregateCount;
+
 //        @XmlAttribute(name = "batchSize")
 //        private Integer batchSize;
 
@@ -72,6 +87,20 @@ public class XmlConfig {
             return this.actionTable;
         }
 
+        /**
+         * @return names of group columns separated by commas or empty list if query is not aggregated
+         */
+        public List<String> getAggregateBy() {
+            return Cdc.splitIds(aggregateBy);
+        }
+
+        public String getAggregateCount() {
+            if (aggregateCount == null || aggregateCount.trim().isEmpty()) {
+                return null;
+            }
+            return aggregateCount.trim();
+        }
+
 //        public int getBatchSize() {
 //            if (batchSize == null) {
 //                return DEFAULT_BATCH_SIZE;
@@ -93,6 +122,40 @@ public class XmlConfig {
         private Integer timeoutSeconds;
         @XmlAttribute(name = "errorThreshold")
         private Integer errorThreshold;
+        @XmlAttribute(name = "lingerMs")
+        private Integer lingerMs;
+        @XmlAttribute(name = "maxBatchBytes")
+        private Long maxBatchBytes;
+        @XmlAttribute(name = "inflightBatches")
+        private Integer inflightBatches;
+        @XmlAttribute(name = "routing")
+        private String routing;
+        @XmlAttribute(name = "coalesce")
+        private Boolean coalesce;
+        @XmlAttribute(name = "maxMemoryUsageBytes")
+        private Long maxMemoryUsageBytes;
+        @XmlAttribute(name = "maxPartitionBytes")
+        private Long maxPartitionBytes;
+        @XmlAttribute(name = "statsMode")
+        private String statsMode;
+        @XmlAttribute(name = "statsSampling")
+        private Integer statsSampling;
+        @XmlAttribute(name = "fanOut")
+        private String fanOut;
+        @XmlAttribute(name = "quarantineFile")
+        private String quarantineFile;
+        @XmlAttribute(name = "quarantineTable")
+        private String quarantineTable;
+        @XmlAttribute(name = "adaptiveBatch")
+        private Boolean adaptiveBatch;
+        @XmlAttribute(name = "minBatchSize")
+        private Integer minBatchSize;
+        @XmlAttribute(name = "maxBatchSize")
+        private Integer maxBatchSize;
+        @XmlAttribute(name = "targetLatencyMs")
+        private Integer targetLatencyMs;
+        @XmlAttribute(name = "filter")
+        private String filter;
 
         @XmlAttribute(name = "updateQueryId")
         private String updateQueryId;
@@ -118,6 +181,30 @@ public class XmlConfig {
             return this.deleteQueryId;
         }
 
+        /**
+         * @return ids of queries to process updates, attribute updateQueryId may contain several ids separated by
+         * commas
+         */
+        public List<String> getUpdateQueryIds() {
+            return splitIds(updateQueryId);
+        }
+
+        public List<String> getDeleteQueryIds() {
+            return splitIds(deleteQueryId);
+        }
+
+        private static List<String> splitIds(String ids) {
+            List<String> list = new ArrayList<>();
+            if (ids != null) {
+                for (String id: ids.split(",")) {
+                    if (!id.trim().isEmpty()) {
+                        list.add(id.trim());
+                    }
+                }
+            }
+            return list;
+        }
+
         public String getQuery() {
             return this.query;
         }
@@ -129,6 +216,63 @@ public class XmlConfig {
             return batchSize;
         }
 
+        public String getFanOut() {
+            if (fanOut == null || fanOut.trim().isEmpty()) {
+                return DEFAULT_FAN_OUT;
+            }
+            return fanOut.trim();
+        }
+
+        public boolean isScriptFanOut() {
+            return "script".equalsIgnoreCase(getFanOut());
+        }
+
+        public String getQuarantineFile() {
+            if (quarantineFile == null || quarantineFile.trim().isEmpty()) {
+                return null;
+            }
+            return quarantineFile.trim();
+        }
+
+        public String getQuarantineTable() {
+            if (quarantineTable == null || quarantineTable.trim().isEmpty()) {
+                return null;
+            }
+            return quarantineTable.trim();
+        }
+
+        public String getFilter() {
+            if (filter == null || filter.trim().isEmpty()) {
+                return null;
+            }
+            return filter.trim();
+        }
+
+        public boolean isAdaptiveBatch() {
+            return adaptiveBatch != null && adaptiveBatch;
+        }
+
+        public int getMinBatchSize() {
+            if (minBatchSize == null || minBatchSize < 1) {
+                return DEFAULT_MIN_BATCH_SIZE;
+            }
+            return minBatchSize;
+        }
+
+        public int getMaxBatchSize() {
+            if (maxBatchSize == null || maxBatchSize < 1) {
+                return 10 * getBatchSize();
+            }
+            return maxBatchSize;
+        }
+
+        public int getTargetLatencyMs() {
+            if (targetLatencyMs == null || targetLatencyMs < 1) {
+                return DEFAULT_TARGET_LATENCY_MS;
+            }
+            return targetLatencyMs;
+        }
+
         public int getThreadsCount() {
             if (threadsCount == null) {
                 return DEFAULT_THREADS_COUNT;
@@ -149,5 +293,69 @@ public class XmlConfig {
             }
             return errorThreshold;
         }
+
+        public int getLingerMs() {
+            if (lingerMs == null) {
+                return 0;
+            }
+            return lingerMs;
+        }
+
+        public long getMaxBatchBytes() {
+            if (maxBatchBytes == null) {
+                return 0;
+            }
+            return maxBatchBytes;
+        }
+
+        public int getInflightBatches() {
+            if (inflightBatches == null || inflightBatches < 1) {
+                return DEFAULT_INFLIGHT_BATCHES;
+            }
+            return inflightBatches;
+        }
+
+        public String getRouting() {
+            if (routing == null || routing.trim().isEmpty()) {
+                return DEFAULT_ROUTING;
+            }
+            return routing.trim();
+        }
+
+        public boolean isKeyRouting() {
+            return "key".equalsIgnoreCase(getRouting());
+        }
+
+        public boolean isCoalesce() {
+            return coalesce != null && coalesce;
+        }
+
+        public long getMaxMemoryUsageBytes() {
+            if (maxMemoryUsageBytes == null || maxMemoryUsageBytes <= 0) {
+                return DEFAULT_MAX_MEMORY_USAGE_BYTES;
+            }
+            return maxMemoryUsageBytes;
+        }
+
+        public String getStatsMode() {
+            if (statsMode == null || statsMode.trim().isEmpty()) {
+                return DEFAULT_STATS_MODE;
+            }
+            return statsMode.trim();
+        }
+
+        public int getStatsSampling() {
+            if (statsSampling == null || statsSampling < 1) {
+                return DEFAULT_STATS_SAMPLING;
+            }
+            return statsSampling;
+        }
+
+        public long getMaxPartitionBytes() {
+            if (maxPartitionBytes == null || maxPartitionBytes <= 0) {
+                return DEFAULT_MAX_PARTITION_BYTES;
+            }
+            return maxPartitionBytes;
+        }
     }
 }
@@ -18,22 +18,18 @@ import org.springframework.stereotype.Service;
 
 import tech.ydb.auth.TokenAuthProvider;
 import tech.ydb.auth.iam.CloudAuthHelper;
-import tech.ydb.common.transaction.TxMode;
 import tech.ydb.core.Result;
 import tech.ydb.core.Status;
 import tech.ydb.core.auth.StaticCredentials;
 import tech.ydb.core.grpc.GrpcTransport;
 import tech.ydb.core.grpc.GrpcTransportBuilder;
-import tech.ydb.query.QuerySession;
-import tech.ydb.query.QueryStream;
 import tech.ydb.query.impl.QueryClientImpl;
-import tech.ydb.query.settings.ExecuteQuerySettings;
-import tech.ydb.query.tools.QueryReader;
 import tech.ydb.table.Session;
 import tech.ydb.table.TableClient;
 import tech.ydb.table.description.TableDescription;
 import tech.ydb.table.query.DataQuery;
-import tech.ydb.table.query.Params;
+import tech.ydb.table.settings.BulkUpsertSettings;
+import tech.ydb.table.values.ListValue;
 import tech.ydb.topic.TopicClient;
 import tech.ydb.topic.read.AsyncReader;
 import tech.ydb.topic.settings.ReadEventHandlersSettings;
@@ -157,36 +153,24 @@ public class YdbService {
         }
     }
 
-    public Status executeYqlQuery(String query, Params params, int timeoutSeconds) {
-        Result<QuerySession> session = queryClient.createSession(Duration.ofSeconds(5)).join();
+    public Status bulkUpsert(String tablePath, ListValue rows, int timeoutSeconds) {
+        Result<Session> session = tableClient.createSession(Duration.ofSeconds(5)).join();
         if (!session.isSuccess()) {
             return session.getStatus();
         }
 
-        try (QuerySession s = session.getValue()) {
-            ExecuteQuerySettings.Builder settings = ExecuteQuerySettings.newBuilder();
-            if (timeoutSeconds > 0) {
-                settings.withRequestTimeout(Duration.ofSeconds(timeoutSeconds));
-            }
-            return s.createQuery(query, TxMode.NONE, params, settings.build()).execute().join().getStatus();
+        BulkUpsertSettings settings = new BulkUpsertSettings();
+        if (timeoutSeconds > 0) {
+            settings.setTimeout(Duration.ofSeconds(timeoutSeconds));
         }
-    }
 
-    @SuppressWarnings("null")
-    public Result<QueryReader> readYqlQuery(String query, Params params, int timeoutSeconds) {
-        Result<QuerySession> session = queryClient.createSession(Duration.ofSeconds(5)).join();
-        if (!session.isSuccess()) {
-            return session.map(null);
+        try (Session s = session.getValue()) {
+            return s.executeBulkUpsert(tablePath, rows, settings).join();
         }
+    }
 
-        try (QuerySession s = session.getValue()) {
-            ExecuteQuerySettings.Builder settings = ExecuteQuerySettings.newBuilder();
-            if (timeoutSeconds > 0) {
-                settings.withRequestTimeout(Duration.ofSeconds(timeoutSeconds));
-            }
-            QueryStream stream = s.createQuery(query, TxMode.SNAPSHOT_RO, params, settings.build());
-            return QueryReader.readFrom(stream).join();
-        }
+    public PinnedSession createPinnedSession(String owner) {
+        return new PinnedSession(queryClient, owner);
     }
 
     public AsyncReader createReader(ReaderSettings rs, ReadEventHandlersSettings settings) {
@@ -6,12 +6,20 @@ import java.time.Instant;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,8 +35,10 @@ import tech.ydb.table.values.OptionalType;
 import tech.ydb.table.values.PrimitiveType;
 import tech.ydb.table.values.PrimitiveValue;
 import tech.ydb.table.values.StructType;
+import tech.ydb.table.values.StructValue;
 import tech.ydb.table.values.Type;
 import tech.ydb.table.values.Value;
+import tech.ydb.topic.read.Message;
 
 /**
  *
@@ -36,122 +46,359 @@ import tech.ydb.table.values.Value;
  */
 public abstract class YqlQuery {
     private static final Logger logger = LoggerFactory.getLogger(YqlWriter.class); // use logger of YdlWriter
+    private static final ObjectMapper MAPPER = new ObjectMapper();
 
-    private final long batchSize;
+    private long batchSize;
+    private final long maxBatchBytes;
+    private final boolean coalesce;
+    private boolean trackKeys;
     private final StructType structType;
-    private final Map<String, Integer> keyColumns = new HashMap<>();
-
-    protected final List<Value<?>> batch = new ArrayList<>();
-
-    protected YqlQuery(StructType type, List<String> keys, long batchSize) {
-        this.batchSize = batchSize;
+    // member index for every column of the source primary key, -1 if column is not used
+    private final int[] keyMembers;
+    private final Map<String, Integer> valueMembers = new HashMap<>();
+    // converters and empty values of members are prepared once for the struct type
+    private final ValueReader[] readers;
+    private final Value<?>[] emptyValues;
+
+    protected List<Value<?>> batch = new ArrayList<>();
+    // source message of every row of batch, used to quarantine rows which cannot be written
+    protected List<Message> batchMessages = new ArrayList<>();
+    private List<Message> takenMessages = Collections.emptyList();
+    // primary key of row to its index in batch, removed rows are replaced by null
+    private Map<String, Integer> batchKeys = new HashMap<>();
+    private int batchRemoved = 0;
+    private long batchBytes = 0;
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    protected YqlQuery(StructType type, List<String> keys, XmlConfig.Cdc config) {
+        this.batchSize = config.getBatchSize();
+        this.maxBatchBytes = config.getMaxBatchBytes();
+        // keys of batch are used to order batches executed concurrently and to coalesce changes of the same key
+        this.coalesce = config.isCoalesce();
+        this.trackKeys = config.getInflightBatches() > 1 || coalesce;
         this.structType = type;
+        this.keyMembers = new int[keys.size()];
 
+        Map<String, Integer> keyColumns = new HashMap<>();
         for (int keyIndex = 0; keyIndex < keys.size(); keyIndex += 1) {
             keyColumns.put(keys.get(keyIndex), keyIndex);
+            keyMembers[keyIndex] = -1;
         }
-    }
 
-    public void addMessage(JsonNode key, JsonNode update) throws IOException {
-        Value<?>[] members = new Value<?>[structType.getMembersCount()];
-        for (int idx = 0; idx < structType.getMembersCount(); idx += 1) {
-            String name = structType.getMemberName(idx);
-            Type type = structType.getMemberType(idx);
+        int membersCount = type != null ? type.getMembersCount() : 0;
+        this.readers = new ValueReader[membersCount];
+        this.emptyValues = new Value<?>[membersCount];
+
+        for (int idx = 0; idx < membersCount; idx += 1) {
+            Type memberType = type.getMemberType(idx);
+            readers[idx] = createReader(memberType);
+            if (memberType.getKind() == Type.Kind.OPTIONAL) {
+                emptyValues[idx] = ((OptionalType) memberType).emptyValue();
+            }
+
+            String name = type.getMemberName(idx);
             if (keyColumns.containsKey(name)) {
-                Integer keyIndex = keyColumns.get(name);
-                members[idx] = readValue(key.get(keyIndex), type);
+                keyMembers[keyColumns.get(name)] = idx;
             } else {
-                members[idx] = readValue(update != null ? update.get(name) : null, type);
+                valueMembers.put(name, idx);
             }
         }
+    }
+
+    public int getMembersCount() {
+        return readers.length;
+    }
+
+    public boolean isTrackingKeys() {
+        return trackKeys;
+    }
+
+    /**
+     * Enables tracking of keys of the batch, it is required when changes of one key may be pending in several
+     * queries at the same time.
+     */
+    void enableKeysTracking() {
+        this.trackKeys = true;
+    }
+
+    public boolean isSkipping() {
+        return false;
+    }
+
+    public boolean isCoalescing() {
+        return coalesce;
+    }
 
-        batch.add(structType.newValueUnsafe(members));
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    public long getQueryCacheHits() {
+        return 0;
+    }
+
+    public long getQueryCacheMisses() {
+        return 0;
+    }
+
+    /**
+     * @param keyIndex position of column in the primary key of the source table
+     * @return index of the struct member for this column or -1 if column is not used
+     */
+    public int getKeyMemberIndex(int keyIndex) {
+        return keyIndex < keyMembers.length ? keyMembers[keyIndex] : -1;
+    }
+
+    /**
+     * @param column name of the not key column of the source table
+     * @return index of the struct member for this column or -1 if column is not used
+     */
+    public int getValueMemberIndex(String column) {
+        Integer idx = valueMembers.get(column);
+        return idx != null ? idx : -1;
+    }
+
+    /**
+     * Reads the value of struct member from the current token of parser.
+     *
+     * @param memberIndex index of the struct member
+     * @param parser json parser with current token of the value
+     * @return value of the struct member
+     * @throws IOException if value cannot be read with the member type
+     */
+    public Value<?> readValue(int memberIndex, JsonParser parser) throws IOException {
+        return readers[memberIndex].read(parser);
+    }
+
+    public void addRow(Value<?>[] members, String key, Message source) throws IOException {
+        for (int idx = 0; idx < members.length; idx += 1) {
+            if (members[idx] == null) {
+                if (emptyValues[idx] == null) {
+                    throw new IOException("Missed value of column " + structType.getMemberName(idx) + " with type "
+                            + structType.getMemberType(idx));
+                }
+                members[idx] = emptyValues[idx];
+            }
+        }
+
+        Value<?> row = structType.newValueUnsafe(members);
+        if (!trackKeys) {
+            batch.add(row);
+            batchMessages.add(source);
+            return;
+        }
+
+        Integer index = coalesce ? batchKeys.get(key) : null;
+        if (index != null) { // the last change of key wins
+            batch.set(index, row);
+            batchMessages.set(index, source);
+            coalescedCount.incrementAndGet();
+        } else {
+            batchKeys.put(key, batch.size());
+            batch.add(row);
+            batchMessages.add(source);
+        }
+    }
+
+    /**
+     * Removes the pending change of key from the current batch, because it is replaced by the later change of
+     * another type.
+     *
+     * @param key primary key of row
+     */
+    public void removeKey(String key) {
+        if (!coalesce) {
+            return;
+        }
+
+        Integer index = batchKeys.remove(key);
+        if (index != null) {
+            batch.set(index, null);
+            batchRemoved++;
+            coalescedCount.incrementAndGet();
+        }
+    }
+
+    public boolean containsKey(String key) {
+        return batchKeys.containsKey(key);
+    }
+
+    public void addBytes(long bytes) {
+        batchBytes += bytes;
+    }
+
+    public void setBatchSize(long batchSize) {
+        this.batchSize = batchSize;
     }
 
     public boolean isFull() {
-        return batch.size() >= batchSize;
+        return batchSize() >= batchSize || (maxBatchBytes > 0 && batchBytes >= maxBatchBytes);
     }
 
     public boolean isEmpty() {
-        return batch.isEmpty();
+        return batchSize() == 0;
     }
 
     public int batchSize() {
-        return batch.size();
+        return batch.size() - batchRemoved;
+    }
+
+    public long batchBytes() {
+        return batchBytes;
+    }
+
+    /**
+     * Detaches the current batch from the query, so it can be executed while the next batch is being filled.
+     *
+     * @return rows of the current batch
+     */
+    public List<Value<?>> takeBatch() {
+        List<Value<?>> rows = batch;
+        List<Message> messages = batchMessages;
+        if (batchRemoved > 0) {
+            int size = 0;
+            for (int idx = 0; idx < rows.size(); idx++) {
+                if (rows.get(idx) != null) {
+                    rows.set(size, rows.get(idx));
+                    messages.set(size, messages.get(idx));
+                    size++;
+                }
+            }
+            rows.subList(size, rows.size()).clear();
+            messages.subList(size, messages.size()).clear();
+        }
+        batch = new ArrayList<>();
+        batchMessages = new ArrayList<>();
+        takenMessages = messages;
+        batchRemoved = 0;
+        batchBytes = 0;
+        return rows;
     }
 
-    public void clear() {
-        batch.clear();
+    /**
+     * Returns source messages of rows detached by the last call of {@link #takeBatch() }, in the same order as rows.
+     *
+     * @return source messages of the detached batch
+     */
+    public List<Message> takeBatchMessages() {
+        List<Message> messages = takenMessages;
+        takenMessages = Collections.emptyList();
+        return messages;
     }
 
-    public abstract Status execute(YdbService ydb);
+    /**
+     * Detaches the primary keys of the current batch, keys are tracked only when several batches can be executed
+     * concurrently.
+     *
+     * @return set of primary keys of the current batch
+     */
+    public Set<String> takeBatchKeys() {
+        Set<String> keys = batchKeys.keySet();
+        batchKeys = new HashMap<>();
+        return keys;
+    }
 
-    private Value<?> readValue(JsonNode node, Type type) throws IOException {
+    /**
+     * Executes rows detached by {@link #takeBatch() }. Implementations must not depend on the current batch, because
+     * this method may be called from another thread.
+     *
+     * @param session session to execute query
+     * @param rows batch to write
+     * @return status of execution
+     */
+    public abstract Status execute(PinnedSession session, List<Value<?>> rows);
+
+    /**
+     * Executes rows which may be already partially applied by the previous attempt. Queries which write rows by
+     * several independent transactions mark applied parts in {@code applied} and skip them on the retry of the same
+     * rows, so non-idempotent targets are not applied twice.
+     *
+     * @param session session to execute query
+     * @param rows batch to write
+     * @param applied indexes of parts already applied to these rows, updated by the execution
+     * @return status of execution
+     */
+    public Status execute(PinnedSession session, List<Value<?>> rows, BitSet applied) {
+        return execute(session, rows);
+    }
+
+    private static ValueReader createReader(Type type) {
         if (type.getKind() == Type.Kind.OPTIONAL) {
             OptionalType optional = (OptionalType) type;
-            if (node == null || node.isNull()) {
-                return optional.emptyValue();
-            } else {
-                return readValue(node, optional.getItemType()).makeOptional();
-            }
+            Value<?> empty = optional.emptyValue();
+            ValueReader item = createNotNullReader(optional.getItemType());
+            return parser -> parser.currentToken() == JsonToken.VALUE_NULL ? empty : item.read(parser).makeOptional();
         }
 
+        ValueReader reader = createNotNullReader(type);
+        return parser -> {
+            if (parser.currentToken() == JsonToken.VALUE_NULL) {
+                throw new IOException("Can't read null value with type " + type);
+            }
+            return reader.read(parser);
+        };
+    }
+
+    private static ValueReader createNotNullReader(Type type) {
         if (type.getKind() == Type.Kind.DECIMAL) {
             DecimalType decimal = (DecimalType) type;
-            return decimal.newValue(node.asText());
+            return parser -> decimal.newValue(parser.getText());
         }
 
         if (type.getKind() == Type.Kind.PRIMITIVE) {
             PrimitiveType primitive = (PrimitiveType) type;
             switch (primitive) {
                 case Bool:
-                    return PrimitiveValue.newBool(node.asBoolean());
+                    return parser -> PrimitiveValue.newBool(parser.getValueAsBoolean());
 
                 case Int8:
-                    return PrimitiveValue.newInt8((byte) node.asInt());
+                    return parser -> PrimitiveValue.newInt8((byte) parser.getValueAsInt());
                 case Int16:
-                    return PrimitiveValue.newInt16((short) node.asInt());
+                    return parser -> PrimitiveValue.newInt16((short) parser.getValueAsInt());
                 case Int32:
-                    return PrimitiveValue.newInt32(node.asInt());
+                    return parser -> PrimitiveValue.newInt32(parser.getValueAsInt());
                 case Int64:
-                    return PrimitiveValue.newInt64(node.asLong());
+                    return parser -> PrimitiveValue.newInt64(parser.getValueAsLong());
 
                 case Uint8:
-                    return PrimitiveValue.newUint8(node.asInt());
+                    return parser -> PrimitiveValue.newUint8(parser.getValueAsInt());
                 case Uint16:
-                    return PrimitiveValue.newUint16(node.asInt());
+                    return parser -> PrimitiveValue.newUint16(parser.getValueAsInt());
                 case Uint32:
-                    return PrimitiveValue.newUint32(node.asLong());
+                    return parser -> PrimitiveValue.newUint32(parser.getValueAsLong());
                 case Uint64:
-                    return PrimitiveValue.newUint64(node.asLong());
+                    return parser -> PrimitiveValue.newUint64(readUint64(parser));
 
                 case Float:
-                    return PrimitiveValue.newFloat(Double.valueOf(node.asDouble()).floatValue());
+                    return parser -> PrimitiveValue.newFloat((float) parser.getValueAsDouble());
                 case Double:
-                    return PrimitiveValue.newDouble(node.asDouble());
+                    return parser -> PrimitiveValue.newDouble(parser.getValueAsDouble());
 
                 case Text:
-                    return PrimitiveValue.newText(node.asText());
+                    return parser -> PrimitiveValue.newText(parser.getText());
                 case Json:
-                    return PrimitiveValue.newJson(node.toString());
+                    return parser -> PrimitiveValue.newJson(MAPPER.readTree(parser).toString());
                 case Bytes:
-                    return PrimitiveValue.newBytes(Base64.getDecoder().decode(node.asText()));
+                    return parser -> PrimitiveValue.newBytes(Base64.getDecoder().decode(parser.getText()));
                 case Yson:
-                    logger.warn("type YSON is not supported, ignored value {}", node.toString());
-                    return PrimitiveValue.newYson("{}".getBytes());
+                    return parser -> {
+                        logger.warn("type YSON is not supported, ignored value {}", MAPPER.readTree(parser));
+                        return PrimitiveValue.newYson("{}".getBytes());
+                    };
                 case JsonDocument:
-                    return PrimitiveValue.newJsonDocument(node.toString());
+                    return parser -> PrimitiveValue.newJsonDocument(MAPPER.readTree(parser).toString());
                 case Uuid:
-                    return PrimitiveValue.newUuid(node.asText());
+                    return parser -> PrimitiveValue.newUuid(parser.getText());
                 case Date:
-                    return PrimitiveValue.newDate(Instant.parse(node.asText()).atOffset(ZoneOffset.UTC).toLocalDate());
+                    return parser -> PrimitiveValue.newDate(Instant.parse(parser.getText()).atOffset(ZoneOffset.UTC)
+                            .toLocalDate());
                 case Datetime:
-                    return PrimitiveValue.newDatetime(Instant.parse(node.asText()).atOffset(ZoneOffset.UTC)
-                            .toLocalDateTime());
+                    return parser -> PrimitiveValue.newDatetime(Instant.parse(parser.getText())
+                            .atOffset(ZoneOffset.UTC).toLocalDateTime());
                 case Timestamp:
-                    return PrimitiveValue.newTimestamp(Instant.parse(node.asText()));
+                    return parser -> PrimitiveValue.newTimestamp(Instant.parse(parser.getText()));
                 case Interval:
-                    return PrimitiveValue.newInterval(Duration.ofSeconds(node.asLong()));
+                    return parser -> PrimitiveValue.newInterval(Duration.ofSeconds(parser.getValueAsLong()));
                 case TzDate:
                 case TzTimestamp:
                 case TzDatetime:
@@ -162,21 +409,47 @@ public abstract class YqlQuery {
         }
 
         logger.warn("unsupported type {}", type);
-        throw new IOException("Can't read node value " + node + " with type " + type);
+        return parser -> {
+            throw new IOException("Can't read node value " + parser.getText() + " with type " + type);
+        };
+    }
+
+    private static long readUint64(JsonParser parser) throws IOException {
+        // values greater than Long.MAX_VALUE are stored as negative longs
+        if (parser.currentToken() == JsonToken.VALUE_NUMBER_INT
+                && parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+            return parser.getBigIntegerValue().longValue();
+        }
+        return parser.getValueAsLong();
+    }
+
+    @FunctionalInterface
+    private interface ValueReader {
+        Value<?> read(JsonParser parser) throws IOException;
     }
 
     public static Supplier<YqlQuery> skipMessages(String type, String config, List<String> keys, XmlConfig.Cdc xml) {
-        final int batchSize = xml.getBatchSize();
-        return () -> new YqlQuery(null, keys, batchSize) {
+        return () -> new YqlQuery(null, keys, xml) {
             @Override
-            public void addMessage(JsonNode key, JsonNode update) throws IOException {
+            public void addRow(Value<?>[] members, String key, Message source) {
                 batch.add(NullValue.of());
+                batchMessages.add(source);
+            }
+
+            @Override
+            public boolean isSkipping() {
+                return true;
             }
 
             @Override
-            public Status execute(YdbService ydb) {
+            public boolean isCoalescing() {
+                return false; // skipped changes must not replace pending changes of the other type
+            }
+
+            @Override
+            public Status execute(PinnedSession session, List<Value<?>> rows) {
                 logger.info("skipped {} {} messages because {} is not configured for changefeed {}, consumer {}",
-                        batch.size(), type, config, xml.getChangefeed(), xml.getConsumer());
+                        rows.size(), type, config, xml.getChangefeed(), xml.getConsumer());
                 return Status.SUCCESS;
             }
         };
@@ -184,26 +457,195 @@ public abstract class YqlQuery {
 
     public static Supplier<YqlQuery> executeYql(String query, List<String> keys, String name, StructType type,
             XmlConfig.Cdc config) {
-        final int batchSize = config.getBatchSize();
         final int timeout = config.getTimeoutSeconds();
-        return () -> new YqlQuery(type, keys, batchSize) {
+        return () -> new YqlQuery(type, keys, config) {
             @Override
-            public Status execute(YdbService ydb) {
-                Params prm = Params.of(name, ListType.of(type).newValue(batch));
-                return ydb.executeYqlQuery(query, prm, timeout);
+            public Status execute(PinnedSession session, List<Value<?>> rows) {
+                Params prm = Params.of(name, ListType.of(type).newValue(rows));
+                return session.executeYqlQuery(query, prm, timeout);
+            }
+        };
+    }
+
+    public static Supplier<YqlQuery> bulkUpsert(YdbService ydb, String tablePath, List<String> keys, StructType type,
+            XmlConfig.Cdc config) {
+        final int timeout = config.getTimeoutSeconds();
+        return () -> new YqlQuery(type, keys, config) {
+            @Override
+            public Status execute(PinnedSession session, List<Value<?>> rows) {
+                // BulkUpsert doesn't need the query session, rows are written directly to the table
+                return ydb.bulkUpsert(tablePath, ListType.of(type).newValue(rows), timeout);
+            }
+        };
+    }
+
+    /**
+     * Writes every row to several target queries. The message is parsed once into the union of members of all
+     * targets and rows of every target are projected from it. Targets are executed one by one in separate
+     * transactions, so the batch is written only when all targets are applied. Retries of the same rows skip targets
+     * which are already applied.
+     *
+     * @param targets queries of targets
+     * @param keys primary key of the source table
+     * @param config cdc config
+     * @return supplier of fan-out query
+     */
+    public static Supplier<YqlQuery> fanOut(List<Supplier<YqlQuery>> targets, List<String> keys,
+            XmlConfig.Cdc config) {
+        return () -> {
+            List<YqlQuery> queries = new ArrayList<>(targets.size());
+            List<StructType> types = new ArrayList<>(targets.size());
+            for (Supplier<YqlQuery> target: targets) {
+                YqlQuery query = target.get();
+                queries.add(query);
+                types.add(query.structType);
             }
+
+            StructType union = unionType(types);
+            // member of union for every member of target, null if target has the same type as union
+            int[][] projections = new int[queries.size()][];
+            for (int idx = 0; idx < queries.size(); idx++) {
+                StructType type = types.get(idx);
+                if (!type.equals(union)) {
+                    projections[idx] = new int[type.getMembersCount()];
+                    for (int member = 0; member < type.getMembersCount(); member++) {
+                        projections[idx][member] = union.getMemberIndex(type.getMemberName(member));
+                    }
+                }
+            }
+
+            return new YqlQuery(union, keys, config) {
+                @Override
+                public long getQueryCacheHits() {
+                    return queries.stream().mapToLong(YqlQuery::getQueryCacheHits).sum();
+                }
+
+                @Override
+                public long getQueryCacheMisses() {
+                    return queries.stream().mapToLong(YqlQuery::getQueryCacheMisses).sum();
+                }
+
+                @Override
+                public Status execute(PinnedSession session, List<Value<?>> rows) {
+                    return execute(session, rows, new BitSet());
+                }
+
+                @Override
+                public Status execute(PinnedSession session, List<Value<?>> rows, BitSet applied) {
+                    for (int idx = 0; idx < queries.size(); idx++) {
+                        if (applied.get(idx)) { // target is already applied by the previous attempt
+                            continue;
+                        }
+                        List<Value<?>> targetRows = rows;
+                        if (projections[idx] != null) {
+                            targetRows = project(rows, types.get(idx), projections[idx]);
+                        }
+                        Status status = queries.get(idx).execute(session, targetRows);
+                        if (!status.isSuccess()) {
+                            return status;
+                        }
+                        applied.set(idx);
+                    }
+                    return Status.SUCCESS;
+                }
+            };
+        };
+    }
+
+    /**
+     * Folds rows of every batch into one row per group before execution. Coalescing must be disabled, every change
+     * is counted.
+     *
+     * @param query query which gets rows of delta type
+     * @param sourceType type of parsed rows
+     * @param aggregator aggregator of rows
+     * @param keys primary key of the source table
+     * @param config cdc config
+     * @return supplier of aggregating query
+     */
+    public static Supplier<YqlQuery> aggregate(Supplier<YqlQuery> query, StructType sourceType, Aggregator aggregator,
+            List<String> keys, XmlConfig.Cdc config) {
+        return () -> {
+            YqlQuery target = query.get();
+            return new YqlQuery(sourceType, keys, config) {
+                @Override
+                public boolean isCoalescing() {
+                    return false; // every change of the key is counted
+                }
+
+                @Override
+                public long getQueryCacheHits() {
+                    return target.getQueryCacheHits();
+                }
+
+                @Override
+                public long getQueryCacheMisses() {
+                    return target.getQueryCacheMisses();
+                }
+
+                @Override
+                public Status execute(PinnedSession session, List<Value<?>> rows) {
+                    return target.execute(session, aggregator.fold(rows));
+                }
+            };
         };
     }
 
+    /**
+     * Builds struct type with all members of given types. Types of members with the same name must be equal, it is
+     * guaranteed by validation against the source table.
+     *
+     * @param types struct types
+     * @return union of struct types
+     */
+    static StructType unionType(List<StructType> types) {
+        Map<String, Type> members = new TreeMap<>(); // the same members always give the same type
+        for (StructType type: types) {
+            for (int idx = 0; idx < type.getMembersCount(); idx++) {
+                members.put(type.getMemberName(idx), type.getMemberType(idx));
+            }
+        }
+        return StructType.of(members);
+    }
+
+    private static List<Value<?>> project(List<Value<?>> rows, StructType type, int[] projection) {
+        List<Value<?>> projected = new ArrayList<>(rows.size());
+        for (Value<?> row: rows) {
+            StructValue struct = (StructValue) row;
+            Value<?>[] members = new Value<?>[projection.length];
+            for (int idx = 0; idx < projection.length; idx++) {
+                members[idx] = struct.getMemberValue(projection[idx]);
+            }
+            projected.add(type.newValueUnsafe(members));
+        }
+        return projected;
+    }
+
     public static Supplier<YqlQuery> readAndExecuteYql(String selectQuery, String query, List<String> keys,
             String name, StructType type, XmlConfig.Cdc config) {
-        final int batchSize = config.getBatchSize();
         final int timeout = config.getTimeoutSeconds();
-        return () -> new YqlQuery(type, keys, batchSize) {
+        // queries are shared by all writers, so the same schema always gets the same text and the server reuses
+        // the compiled query from its cache
+        final Map<StructType, ExecuteQuery> cache = new ConcurrentHashMap<>();
+        return () -> new YqlQuery(type, keys, config) {
+            private final AtomicLong cacheHits = new AtomicLong();
+            private final AtomicLong cacheMisses = new AtomicLong();
+            private volatile ExecuteQuery last = null;
+
             @Override
-            public Status execute(YdbService ydb) {
-                Params selectPrms = Params.of(name, ListType.of(type).newValue(batch));
-                Result<QueryReader> res = ydb.readYqlQuery(selectQuery, selectPrms, timeout);
+            public long getQueryCacheHits() {
+                return cacheHits.get();
+            }
+
+            @Override
+            public long getQueryCacheMisses() {
+                return cacheMisses.get();
+            }
+
+            @Override
+            public Status execute(PinnedSession session, List<Value<?>> rows) {
+                Params selectPrms = Params.of(name, ListType.of(type).newValue(rows));
+                Result<QueryReader> res = session.readYqlQuery(selectQuery, selectPrms, timeout);
                 if (!res.isSuccess()) {
                     return res.getStatus();
                 }
@@ -214,15 +656,50 @@ public abstract class YqlQuery {
 
                 ResultSetReader rs = reader.getResultSet(0);
 
-                StructType type = resultSetToType(rs);
-                Value<?> values = ListType.of(type).newValue(resultSetToValues(rs, type));
-                Params executePrms = Params.of("$b", values);
-                String executeQuery = "DECLARE $b AS List<" + type + ">; " + query + " SELECT * FROM AS_TABLE($b);";
-                return ydb.executeYqlQuery(executeQuery, executePrms, timeout);
+                ExecuteQuery execute = last;
+                if (execute != null && execute.matches(rs)) {
+                    cacheHits.incrementAndGet();
+                } else {
+                    StructType resultType = resultSetToType(rs);
+                    execute = cache.get(resultType);
+                    if (execute != null) {
+                        cacheHits.incrementAndGet();
+                    } else {
+                        cacheMisses.incrementAndGet();
+                        execute = cache.computeIfAbsent(resultType, t -> new ExecuteQuery(t, query));
+                    }
+                    last = execute;
+                }
+
+                Value<?> values = ListType.of(execute.type).newValue(resultSetToValues(rs, execute.type));
+                return session.executeYqlQuery(execute.text, Params.of("$b", values), timeout);
             }
         };
     }
 
+    private static class ExecuteQuery {
+        private final StructType type;
+        private final String text;
+
+        ExecuteQuery(StructType type, String query) {
+            this.type = type;
+            this.text = "DECLARE $b AS List<" + type + ">; " + query + " SELECT * FROM AS_TABLE($b);";
+        }
+
+        boolean matches(ResultSetReader rs) {
+            if (rs.getColumnCount() != type.getMembersCount()) {
+                return false;
+            }
+            for (int idx = 0; idx < rs.getColumnCount(); idx += 1) {
+                int member = type.getMemberIndex(rs.getColumnName(idx));
+                if (member < 0 || !type.getMemberType(member).equals(rs.getColumnType(idx))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
     private static StructType resultSetToType(ResultSetReader rs) {
         String[] names = new String[rs.getColumnCount()];
         Type[] types = new Type[rs.getColumnCount()];
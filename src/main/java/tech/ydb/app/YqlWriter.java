@@ -2,24 +2,45 @@ package tech.ydb.app;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import tech.ydb.core.Issue;
 import tech.ydb.core.Status;
 import tech.ydb.core.StatusCode;
+import tech.ydb.query.settings.QueryStatsMode;
+import tech.ydb.table.values.Value;
 import tech.ydb.topic.read.DeferredCommitter;
 import tech.ydb.topic.read.Message;
+import tech.ydb.topic.read.PartitionSession;
 
 /**
  *
@@ -29,9 +50,24 @@ public class YqlWriter implements AutoCloseable {
     private static final Logger logger = LoggerFactory.getLogger(YqlWriter.class);
 
     private final YdbService ydb;
+    private final XmlConfig.Cdc config;
     private final int errorThreshold;
+    private final long lingerNanos;
+    private final int inflightBatches;
+    private final boolean keyRouting;
+    private final FlowControl flowControl;
+    private final QueryStatsMode statsMode;
+    private final int statsSampling;
 
     private final List<Writer> writers;
+    // used only for the routing by key, when messages of one partition are written by several writers
+    private final Map<Long, PartitionTracker> partitions = new ConcurrentHashMap<>();
+    private final Map<Long, PartitionStatus> statuses = new ConcurrentHashMap<>();
+    // time from the creation of the change and from the writing of the message to the topic to the acknowledged commit
+    private final LatencyHistogram createdLatency = new LatencyHistogram();
+    private final LatencyHistogram writtenLatency = new LatencyHistogram();
+    private final SlowBatches slowBatches = new SlowBatches();
+    private final Quarantine quarantine;
 
     private volatile Instant lastReaded;
     private volatile Instant lastWrited;
@@ -42,9 +78,17 @@ public class YqlWriter implements AutoCloseable {
     private final AtomicBoolean isStarted = new AtomicBoolean(false);
     private final AtomicBoolean isStoppped = new AtomicBoolean(false);
 
-    public YqlWriter(YdbService ydb, Supplier<CdcMsgParser> parser, XmlConfig.Cdc config) {
+    public YqlWriter(YdbService ydb, Supplier<CdcMsgParser> parser, XmlConfig.Cdc config, MeterRegistry registry) {
         this.ydb = ydb;
+        this.config = config;
         this.errorThreshold = config.getErrorThreshold();
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(config.getLingerMs());
+        this.inflightBatches = config.getInflightBatches();
+        this.keyRouting = config.isKeyRouting();
+        this.flowControl = new FlowControl(config.getMaxPartitionBytes());
+        this.statsMode = QueryStatsMode.valueOf(config.getStatsMode().toUpperCase(Locale.ROOT));
+        this.statsSampling = config.getStatsSampling();
+        this.quarantine = new Quarantine(ydb, config);
 
         this.lastWrited = null;
         this.lastReaded = null;
@@ -52,7 +96,44 @@ public class YqlWriter implements AutoCloseable {
 
         for (int idx = 1; idx <= config.getThreadsCount(); idx++) {
             String name = "writer-" + config.getConsumer() + "[" + idx + "]";
-            writers.add(new Writer(parser.get(), config.getBatchSize(), name));
+            writers.add(new Writer(parser.get(), name, new WriterMetrics(registry, config, name)));
+        }
+
+        Gauge.builder("cdc.buffered.bytes", flowControl, FlowControl::getBufferedBytes)
+                .description("Size of messages read from the changefeed and waiting for writers")
+                .baseUnit("bytes")
+                .tags("changefeed", config.getChangefeed(), "consumer", config.getConsumer())
+                .register(registry);
+        Gauge.builder("cdc.paused.partitions", flowControl, FlowControl::getPausedCount)
+                .description("Partitions which reading is paused by the flow control")
+                .tags("changefeed", config.getChangefeed(), "consumer", config.getConsumer())
+                .register(registry);
+
+        registerLatency(registry, config, "created", createdLatency);
+        registerLatency(registry, config, "written", writtenLatency);
+    }
+
+    private static void registerLatency(MeterRegistry registry, XmlConfig.Cdc config, String source,
+            LatencyHistogram histogram) {
+        for (int idx = 0; idx < LatencyHistogram.WINDOWS.length; idx++) {
+            final int window = idx;
+            Tags tags = Tags.of("changefeed", config.getChangefeed(), "consumer", config.getConsumer(),
+                    "source", source, "window", LatencyHistogram.WINDOWS[idx] + "m");
+            Gauge.builder("cdc.e2e.latency", histogram, h -> h.getSnapshots()[window].getP50() / 1000.0d)
+                    .description("Percentiles of time from the change to the commit of its offset")
+                    .baseUnit("seconds")
+                    .tags(tags).tag("quantile", "0.5")
+                    .register(registry);
+            Gauge.builder("cdc.e2e.latency", histogram, h -> h.getSnapshots()[window].getP99() / 1000.0d)
+                    .description("Percentiles of time from the change to the commit of its offset")
+                    .baseUnit("seconds")
+                    .tags(tags).tag("quantile", "0.99")
+                    .register(registry);
+            Gauge.builder("cdc.e2e.latency", histogram, h -> h.getSnapshots()[window].getP999() / 1000.0d)
+                    .description("Percentiles of time from the change to the commit of its offset")
+                    .baseUnit("seconds")
+                    .tags(tags).tag("quantile", "0.999")
+                    .register(registry);
         }
     }
 
@@ -60,6 +141,10 @@ public class YqlWriter implements AutoCloseable {
         return writers.size();
     }
 
+    public int getSessionsCount() {
+        return writers.size() * inflightBatches;
+    }
+
     public Status getLastStatus() {
         for (int idx = 0; idx < writers.size(); idx++) {
             Status last = writers.get(idx).lastStatus;
@@ -70,6 +155,58 @@ public class YqlWriter implements AutoCloseable {
         return Status.SUCCESS;
     }
 
+    public List<PinnedSession> getSessions() {
+        List<PinnedSession> sessions = new ArrayList<>(getSessionsCount());
+        for (Writer writer: writers) {
+            sessions.addAll(writer.sessions);
+        }
+        return sessions;
+    }
+
+    public long getCoalescedCount() {
+        long count = 0;
+        for (Writer writer: writers) {
+            count += writer.parser.getCoalescedCount();
+        }
+        return count;
+    }
+
+    public long getQueryCacheHits() {
+        long count = 0;
+        for (Writer writer: writers) {
+            count += writer.parser.getQueryCacheHits();
+        }
+        return count;
+    }
+
+    public long getQueryCacheMisses() {
+        long count = 0;
+        for (Writer writer: writers) {
+            count += writer.parser.getQueryCacheMisses();
+        }
+        return count;
+    }
+
+    public LatencyHistogram getCreatedLatency() {
+        return createdLatency;
+    }
+
+    public LatencyHistogram getWrittenLatency() {
+        return writtenLatency;
+    }
+
+    public long getQuarantinedCount() {
+        return quarantine.getCount();
+    }
+
+    public SlowBatches getSlowBatches() {
+        return slowBatches;
+    }
+
+    public FlowControl getFlowControl() {
+        return flowControl;
+    }
+
     public Instant getLastWrited() {
         return lastWrited;
     }
@@ -112,23 +249,205 @@ public class YqlWriter implements AutoCloseable {
         } catch (InterruptedException ex) {
             logger.error("unexpected interrupt", ex);
         }
+
+        writers.forEach(w -> w.sessions.forEach(PinnedSession::close));
+        flowControl.close();
     }
 
     public void addMessage(long partitionId, Message msg) {
+        flowControl.acquire(msg);
+        if (keyRouting) {
+            // all changes of one key are processed by the same writer
+            long sessionId = msg.getPartitionSession().getId();
+            partitions.computeIfAbsent(sessionId, id -> new PartitionTracker()).register(msg);
+            int idx = Math.floorMod(CdcMsgParser.keyHash(msg.getData()), writers.size());
+            writers.get(idx).addMesssage(msg);
+            return;
+        }
+
         int idx = (int) partitionId % writers.size();
         writers.get(idx).addMesssage(msg);
     }
 
+    public List<PartitionStatus> getPartitions() {
+        return new ArrayList<>(statuses.values());
+    }
+
+    public void startPartitionSession(PartitionSession session, long committedOffset) {
+        String writer = keyRouting ? "all" : writers.get((int) session.getPartitionId() % writers.size()).getName();
+        statuses.put(session.getId(), new PartitionStatus(session, committedOffset, writer));
+        flowControl.startPartitionSession(session.getId());
+    }
+
+    public void readMessages(long partitionSessionId, long lastOffset) {
+        PartitionStatus status = statuses.get(partitionSessionId);
+        if (status != null) {
+            status.read(lastOffset);
+        }
+    }
+
+    public void committed(long partitionSessionId, long committedOffset) {
+        PartitionStatus status = statuses.get(partitionSessionId);
+        if (status != null) {
+            status.committed(committedOffset, createdLatency, writtenLatency);
+        }
+    }
+
+    private void writed(long partitionSessionId, Message msg) {
+        PartitionStatus status = statuses.get(partitionSessionId);
+        if (status != null) {
+            status.writed(msg.getCreatedAt().toEpochMilli());
+        }
+    }
+
+    public void closePartitionSession(long partitionSessionId) {
+        partitions.remove(partitionSessionId);
+        statuses.remove(partitionSessionId);
+        flowControl.closePartitionSession(partitionSessionId);
+    }
+
+    private class BatchCommitter {
+        private final DeferredCommitter committer = keyRouting ? null : DeferredCommitter.newInstance();
+        private final List<Message> messages = new ArrayList<>();
+        private long bytes = 0;
+        // partition id of messages, -1 if messages are from several partitions
+        private long partitionId = -1;
+
+        void add(Message msg) {
+            long msgPartition = msg.getPartitionSession().getPartitionId();
+            partitionId = messages.isEmpty() || partitionId == msgPartition ? msgPartition : -1;
+            bytes += msg.getData().length;
+            messages.add(msg);
+            if (!keyRouting) {
+                committer.add(msg);
+            }
+        }
+
+        int size() {
+            return messages.size();
+        }
+
+        void commit() {
+            Map<Long, List<Message>> bySession = new HashMap<>();
+            for (Message msg: messages) {
+                long sessionId = msg.getPartitionSession().getId();
+                bySession.computeIfAbsent(sessionId, id -> new ArrayList<>()).add(msg);
+            }
+
+            // end-to-end latency is recorded by the acknowledgement, so messages are registered before the commit
+            for (Map.Entry<Long, List<Message>> entry: bySession.entrySet()) {
+                PartitionStatus status = statuses.get(entry.getKey());
+                if (status != null) {
+                    status.commitSent(entry.getValue());
+                }
+            }
+
+            if (!keyRouting) {
+                committer.commit();
+            }
+
+            for (Map.Entry<Long, List<Message>> entry: bySession.entrySet()) {
+                if (keyRouting) {
+                    PartitionTracker tracker = partitions.get(entry.getKey());
+                    if (tracker != null) { // partition session may be already closed
+                        tracker.written(entry.getValue());
+                    }
+                }
+                writed(entry.getKey(), entry.getValue().get(entry.getValue().size() - 1));
+            }
+        }
+    }
+
+    private static class Batch {
+        private final YqlQuery query;
+        private final long bytes;
+        private final List<Value<?>> rows;
+        private final List<Message> messages;
+        private final Set<String> keys;
+        private final BatchCommitter committer;
+        private final Instant lastMsgCreated;
+        private final long flushedAt = System.nanoTime();
+        private int retries = 0;
+
+        private CompletableFuture<Void> future = null;
+
+        Batch(YqlQuery query, BatchCommitter committer, Instant lastMsgCreated) {
+            this.query = query;
+            this.bytes = query != null ? query.batchBytes() : 0;
+            this.rows = query != null ? query.takeBatch() : Collections.emptyList();
+            this.messages = query != null ? query.takeBatchMessages() : Collections.emptyList();
+            this.keys = query != null ? query.takeBatchKeys() : Collections.emptySet();
+            this.committer = committer;
+            this.lastMsgCreated = lastMsgCreated;
+        }
+
+        boolean isEmpty() {
+            return rows.isEmpty();
+        }
+
+        boolean hasCommonKeys(Batch other) {
+            Set<String> small = keys.size() < other.keys.size() ? keys : other.keys;
+            Set<String> large = small == keys ? other.keys : keys;
+            for (String key: small) {
+                if (large.contains(key)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
     private class Writer implements Runnable {
         private final BlockingQueue<Message> queue;
         private final Thread thread;
         private final CdcMsgParser parser;
+        private final Random rnd = new Random();
+        private final WriterMetrics metrics;
+        private final AtomicLong batchesCount = new AtomicLong();
+        private final AdaptiveBatchSize batchSize;
+
+        private final List<PinnedSession> sessions = new ArrayList<>();
+        private final BlockingQueue<PinnedSession> freeSessions;
+        // batches which are written or waiting for commit, in order of reading
+        private final ArrayDeque<Batch> inflight = new ArrayDeque<>();
+        private final ExecutorService executor;
+
         private volatile Status lastStatus = Status.SUCCESS;
 
-        public Writer(CdcMsgParser parser, int batchSize, String threadName) {
+        public Writer(CdcMsgParser parser, String threadName, WriterMetrics metrics) {
             this.parser = parser;
-            this.queue = new ArrayBlockingQueue<>(2 * batchSize);
+            this.metrics = metrics;
+            this.batchSize = new AdaptiveBatchSize(config);
+            // size of queue is limited by the flow control, adding of messages never blocks the reader
+            this.queue = new LinkedBlockingQueue<>();
             this.thread = new Thread(this, threadName);
+
+            if (inflightBatches > 1) {
+                for (int idx = 1; idx <= inflightBatches; idx++) {
+                    sessions.add(ydb.createPinnedSession(threadName + "-" + idx));
+                }
+                AtomicInteger threadIdx = new AtomicInteger();
+                this.executor = Executors.newFixedThreadPool(inflightBatches,
+                        r -> new Thread(r, threadName + "-" + threadIdx.incrementAndGet()));
+            } else {
+                sessions.add(ydb.createPinnedSession(threadName));
+                this.executor = null;
+            }
+            this.freeSessions = new ArrayBlockingQueue<>(sessions.size(), false, sessions);
+
+            metrics.registerQueue(queue);
+            metrics.registerCounter("cdc.messages.coalesced", "Changes replaced by the later change of the same key",
+                    parser, CdcMsgParser::getCoalescedCount);
+            metrics.registerCounter("cdc.query.cache.hits", "Batches executed with the cached query",
+                    parser, CdcMsgParser::getQueryCacheHits);
+            metrics.registerCounter("cdc.query.cache.misses", "Batches which required a new query",
+                    parser, CdcMsgParser::getQueryCacheMisses);
+            metrics.registerGauge("cdc.batch.size.limit", "Current limit of rows of the batch",
+                    batchSize, AdaptiveBatchSize::get);
+        }
+
+        public String getName() {
+            return thread.getName();
         }
 
         public void start() {
@@ -138,82 +457,205 @@ public class YqlWriter implements AutoCloseable {
 
         public void stop() {
             thread.interrupt();
+            if (executor != null) {
+                executor.shutdownNow();
+            }
             logger.info("writer {} stopped", thread.getName());
         }
 
         public void join() throws InterruptedException {
             thread.join();
+            if (executor != null) {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            }
             logger.info("writer {} finished", thread.getName());
         }
 
         public void addMesssage(Message msg) {
-            try {
-                while (!queue.offer(msg, 5, TimeUnit.SECONDS)) {
-                    if (!thread.isAlive() || thread.isInterrupted()) {
-                        return;
-                    }
-                }
-                lastReaded = msg.getWrittenAt();
-            } catch (InterruptedException ex) {
-                Thread.currentThread().interrupt();
-                logger.warn("worker thread was interrupted");
-            }
+            metrics.messageRead();
+            queue.offer(msg);
+            lastReaded = msg.getWrittenAt();
         }
 
         @Override
-        @SuppressWarnings("SleepWhileInLoop")
         public void run() {
             try {
-                Random rnd = new Random();
-                YqlQuery query = null;
-
                 while (!Thread.interrupted()) {
                     if (logger.isDebugEnabled()) {
                         printDebugStats();
                     }
 
-                    Message msg = queue.poll();
+                    commitCompleted();
+
+                    // wait for the next message, the writer is woken up right after addMesssage
+                    long waitMs = inflight.isEmpty() ? 1000L : 10L;
+                    Message msg = queue.poll(waitMs, TimeUnit.MILLISECONDS);
                     if (msg == null) {
-                        Thread.sleep(1000L);
                         continue;
                     }
 
-                    DeferredCommitter committer = DeferredCommitter.newInstance();
+                    if (batchSize.isAdaptive()) {
+                        parser.setBatchSize(batchSize.get());
+                    }
+
+                    BatchCommitter committer = new BatchCommitter();
                     Instant last = msg.getCreatedAt();
+                    CdcEvents.Parse event = new CdcEvents.Parse();
+                    event.begin();
+                    boolean traced = event.isEnabled();
+                    long parseNanos = 0;
+                    // batch is flushed when it is full or when linger time since the first message is elapsed
+                    long flushAt = System.nanoTime() + lingerNanos;
 
                     while (msg != null) {
-                        YqlQuery nextQuery = parser.parseJsonMessage(msg.getData());
-                        if (nextQuery != null) {
-                            if (query != nextQuery) {
-                                write(rnd, query, last);
-                                committer.commit();
-                                committer = DeferredCommitter.newInstance();
-                            }
-                            query = nextQuery;
+                        flowControl.release(msg);
+                        long parseStart = traced ? System.nanoTime() : 0;
+                        YqlQuery query = null;
+                        try {
+                            query = parser.parseMessage(msg);
+                        } catch (IOException | RuntimeException ex) {
+                            // the message is committed with the batch, the writer continues with the next message
+                            quarantine.add(getName(), msg, null, ex.toString());
+                            metrics.messageQuarantined();
+                        }
+                        if (traced) {
+                            parseNanos += System.nanoTime() - parseStart;
+                        }
+                        // the message dropped by the filter is counted only as filtered
+                        boolean filtered = parser.takeFiltered();
+                        metrics.messageParsed(!filtered && (query == null || query.isSkipping()));
+                        if (filtered) {
+                            metrics.messageFiltered();
+                        }
+                        YqlQuery conflicted = parser.takeConflictedQuery();
+                        if (conflicted != null) {
+                            // the pending change of the same key must be written before the new one
+                            flush(conflicted, new BatchCommitter(), null);
                         }
 
                         last = msg.getCreatedAt();
                         committer.add(msg);
 
-                        if (query != null && query.isFull()) {
+                        if (parser.isFull()) {
                             break;
                         }
 
-                        msg = queue.poll();
+                        if (lingerNanos > 0) {
+                            msg = queue.poll(flushAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        } else {
+                            msg = queue.poll();
+                        }
+                    }
+
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.set(config, getName(), committer.partitionId, committer.size(), committer.bytes);
+                        event.parseTime = parseNanos;
+                        event.commit();
                     }
 
-                    write(rnd, query, last);
-                    committer.commit();
+                    flushAll(committer, last);
                 }
-            } catch (IOException ex) {
+            } catch (RuntimeException ex) {
                 logger.error("writer has stopped by exception", ex);
                 lastStatus = Status.of(StatusCode.CLIENT_INTERNAL_ERROR, ex,
-                        Issue.of(ex.getMessage(), Issue.Severity.ERROR));
+                        Issue.of(ex.toString(), Issue.Severity.ERROR));
             } catch (InterruptedException ex) {
                 // stopping
             }
         }
 
+        private void flushAll(BatchCommitter committer, Instant lastMsgCreated) throws InterruptedException {
+            // updates and deletes of the batch don't have common keys, so their order doesn't matter
+            // offsets are committed with the last batch, after all previous batches are written
+            YqlQuery pending = null;
+            for (YqlQuery query: parser.getQueries()) {
+                if (query.isEmpty()) {
+                    query.takeBatch(); // drops rows removed by coalescing
+                    continue;
+                }
+                if (pending != null) {
+                    flush(pending, new BatchCommitter(), null);
+                }
+                pending = query;
+            }
+            flush(pending, committer, lastMsgCreated);
+        }
+
+        private void flush(YqlQuery query, BatchCommitter committer, Instant lastMsgCreated)
+                throws InterruptedException {
+            Batch batch = new Batch(query, committer, lastMsgCreated);
+
+            // batch cannot be started before the completion of batches with the same keys
+            while (!inflight.isEmpty() && (inflight.size() >= inflightBatches || hasCommonKeys(batch))) {
+                commit(inflight.poll());
+            }
+
+            if (batch.isEmpty()) {
+                batch.future = CompletableFuture.completedFuture(null);
+            } else if (executor == null) {
+                write(freeSessions.peek(), batch);
+                batch.future = CompletableFuture.completedFuture(null);
+            } else {
+                batch.future = CompletableFuture.runAsync(() -> writeAsync(batch), executor);
+            }
+
+            inflight.add(batch);
+            commitCompleted();
+        }
+
+        private boolean hasCommonKeys(Batch batch) {
+            for (Batch other: inflight) {
+                if (batch.hasCommonKeys(other)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void commitCompleted() throws InterruptedException {
+            // offsets are committed strictly in order of reading
+            while (!inflight.isEmpty() && inflight.peek().future.isDone()) {
+                commit(inflight.poll());
+            }
+        }
+
+        private void commit(Batch batch) throws InterruptedException {
+            try {
+                batch.future.get();
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof InterruptedException) {
+                    throw (InterruptedException) ex.getCause();
+                }
+                throw new CompletionException(ex.getCause());
+            }
+
+            CdcEvents.Commit event = new CdcEvents.Commit();
+            event.begin();
+            batch.committer.commit();
+            event.end();
+            if (event.shouldCommit()) {
+                BatchCommitter c = batch.committer;
+                event.set(config, getName(), c.partitionId, c.size(), c.bytes);
+                event.commit();
+            }
+            metrics.batchCommitted(batch.committer.messages, batch.flushedAt);
+            if (!batch.isEmpty() && batch.lastMsgCreated != null) {
+                lastWrited = batch.lastMsgCreated;
+            }
+        }
+
+        private void writeAsync(Batch batch) {
+            PinnedSession session = freeSessions.poll(); // there is always a free session for every inflight batch
+            try {
+                write(session, batch);
+            } catch (InterruptedException ex) {
+                throw new CompletionException(ex);
+            } finally {
+                freeSessions.offer(session);
+            }
+        }
+
         private void printDebugStats() {
             long now = System.currentTimeMillis();
             long printedAt = lastPrinted.get();
@@ -230,39 +672,145 @@ public class YqlWriter implements AutoCloseable {
             }
         }
 
-        @SuppressWarnings("SleepWhileInLoop")
-        public void write(Random rnd, YqlQuery query, Instant lastMsgCreated) throws InterruptedException {
-            if (query == null || query.isEmpty()) {
-                return;
+        /**
+         * Executes rows of the batch. Batches of one writer may be executed concurrently, so the status is returned
+         * to the caller and {@link #lastStatus} is only reported. Exceptions are returned as the failed status.
+         */
+        private Status execute(PinnedSession session, Batch batch, List<Value<?>> rows, BitSet applied, int attempt) {
+            CdcEvents.Execute event = new CdcEvents.Execute();
+            event.begin();
+            long now = System.nanoTime();
+            Status status;
+            try {
+                status = batch.query.execute(session, rows, applied);
+            } catch (RuntimeException ex) {
+                // the exception is retried as any other error, so the writer thread stays alive
+                status = Status.of(StatusCode.CLIENT_INTERNAL_ERROR, ex,
+                        Issue.of(ex.toString(), Issue.Severity.ERROR));
+            }
+            long nanos = System.nanoTime() - now;
+            event.end();
+            metrics.executed(nanos);
+            lastStatus = status;
+
+            if (event.shouldCommit()) {
+                event.set(config, session.getOwner(), batch.committer.partitionId, rows.size(), batch.bytes);
+                event.attempt = attempt;
+                event.status = status.getCode().name();
+                event.commit();
             }
+            return status;
+        }
 
-            writtenCount.addAndGet(query.batchSize());
-            long now = System.currentTimeMillis();
-            lastStatus = query.execute(ydb);
-            long ms = System.currentTimeMillis() - now;
+        public void write(PinnedSession session, Batch batch) throws InterruptedException {
+            writtenCount.addAndGet(batch.rows.size());
+            metrics.batchWritten(batch.rows.size());
+            boolean sampled = statsMode != QueryStatsMode.NONE && batchesCount.incrementAndGet() % statsSampling == 0;
+            session.collectStats(sampled ? statsMode : QueryStatsMode.NONE);
+
+            long startedAt = System.nanoTime();
+            writeRows(session, batch);
+
+            long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+            slowBatches.add(new SlowBatches.Batch(session.getOwner(), batch.rows.size(), durationMs, batch.retries,
+                    session.takeStats()));
+        }
 
+        /**
+         * Writes all rows of the batch. Transient errors are retried, rows which fail because of their data are found
+         * by bisection and quarantined.
+         */
+        @SuppressWarnings("SleepWhileInLoop")
+        private void writeRows(PinnedSession session, Batch batch) throws InterruptedException {
             int retry = 0;
-            while (!lastStatus.isSuccess()) {
-                retry++;
-                long delay = 25 << Math.min(retry, 8);
-                delay = delay + rnd.nextLong(delay);
-                if (retry > errorThreshold) {
-                    logger.warn("got error {} after {} ms", lastStatus, ms);
-                    logger.warn("retry #{} in {} ms", retry, delay);
-                } else {
-                    logger.trace("got error {} after {} ms", lastStatus, ms);
-                    logger.trace("retry #{} in {} ms", retry, delay);
+            // rows before this index are already written, in adaptive mode the batch may be written by parts if its
+            // limit was decreased after the batch was collected
+            int written = 0;
+            int end = 0;
+            // parts of the query applied to rows from written to end by previous attempts
+            BitSet applied = new BitSet();
+
+            while (written < batch.rows.size()) {
+                // partially applied rows are retried as is, other rows are taken by the current limit
+                if (applied.isEmpty()) {
+                    end = batch.rows.size();
+                    if (batchSize.isAdaptive()) {
+                        end = Math.min(end, written + batchSize.get());
+                    }
+                }
+                List<Value<?>> rows = batch.rows.subList(written, end);
+                long startedAt = System.nanoTime();
+                Status status = execute(session, batch, rows, applied, retry);
+                long nanos = System.nanoTime() - startedAt;
+                if (status.isSuccess()) {
+                    batchSize.success(rows.size(), nanos);
+                    written = end;
+                    applied.clear();
+                    continue;
                 }
 
-                Thread.sleep(delay);
+                failed(batch, status);
+                if (Quarantine.isRowError(status)) {
+                    Bisection bisection = new Bisection((from, to, part) -> probe(session, batch, from, to, part));
+                    for (Map.Entry<Integer, Status> row: bisection.isolate(written, end, applied, status).entrySet()) {
+                        quarantine.add(session.getOwner(), batch.messages.get(row.getKey()),
+                                batch.rows.get(row.getKey()), row.getValue().toString());
+                        metrics.messageQuarantined();
+                    }
+                    written = end;
+                    applied.clear();
+                    continue;
+                }
 
-                now = System.currentTimeMillis();
-                lastStatus = query.execute(ydb);
-                ms = System.currentTimeMillis() - now;
+                retry++;
+                backoff(retry, status, nanos);
             }
+        }
+
+        private void failed(Batch batch, Status status) {
+            batchSize.failure(status);
+            metrics.retry(status.getCode());
+            batch.retries++;
+        }
 
-            query.clear();
-            lastWrited = lastMsgCreated;
+        private void backoff(int retry, Status status, long nanos) throws InterruptedException {
+            long ms = TimeUnit.NANOSECONDS.toMillis(nanos);
+            long delay = 25 << Math.min(retry, 8);
+            delay = delay + rnd.nextLong(delay);
+            if (retry > errorThreshold) {
+                logger.warn("got error {} after {} ms", status, ms);
+                logger.warn("retry #{} in {} ms", retry, delay);
+            } else {
+                logger.trace("got error {} after {} ms", status, ms);
+                logger.trace("retry #{} in {} ms", retry, delay);
+            }
+            Thread.sleep(delay);
+        }
+
+        /**
+         * Executes the part of the failed batch while the error is transient, so other parts are not executed again.
+         *
+         * @return success or the error caused by rows
+         */
+        private Status probe(PinnedSession session, Batch batch, int from, int to, BitSet applied)
+                throws InterruptedException {
+            int retry = 0;
+            while (true) {
+                List<Value<?>> rows = batch.rows.subList(from, to);
+                long startedAt = System.nanoTime();
+                Status status = execute(session, batch, rows, applied, retry);
+                long nanos = System.nanoTime() - startedAt;
+                if (status.isSuccess()) {
+                    return status;
+                }
+
+                failed(batch, status);
+                if (Quarantine.isRowError(status)) {
+                    return status;
+                }
+                retry++;
+                backoff(retry, status, nanos);
+            }
         }
     }
 }
@@ -0,0 +1,163 @@
+package tech.ydb.app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import tech.ydb.table.values.PrimitiveType;
+import tech.ydb.table.values.PrimitiveValue;
+import tech.ydb.table.values.StructType;
+import tech.ydb.table.values.StructValue;
+import tech.ydb.table.values.Value;
+
+/**
+ *
+ * @author Aleksandr Gorshenin
+ */
+public class AggregatorTest {
+    private static Value<?> member(Value<?> row, String name) {
+        StructValue struct = (StructValue) row;
+        return struct.getMemberValue(struct.getType().getMemberIndex(name));
+    }
+
+    private static Value<?> int64(long value) {
+        return PrimitiveValue.newInt64(value);
+    }
+
+    @Test
+    public void integerGroupTest() {
+        StructType source = StructType.of("category", PrimitiveType.Int32, "amount", PrimitiveType.Int64,
+                "price", PrimitiveType.Double);
+        StructType delta = StructType.of("category", PrimitiveType.Int32, "amount", PrimitiveType.Int64,
+                "price", PrimitiveType.Double, "events", PrimitiveType.Uint64);
+        Aggregator aggregator = new Aggregator(source, delta, List.of("category"), "events");
+
+        List<Value<?>> rows = new ArrayList<>();
+        // enough groups to fill the map with collisions, every group gets rows at different positions
+        for (int idx = 0; idx < 1000; idx++) {
+            int category = (idx * 7) % 100 - 50;
+            rows.add(source.newValue("category", PrimitiveValue.newInt32(category), "amount", int64(idx),
+                    "price", PrimitiveValue.newDouble(0.5)));
+        }
+
+        List<Value<?>> deltas = aggregator.fold(rows);
+        Assertions.assertEquals(100, deltas.size());
+        long total = 0;
+        for (int idx = 0; idx < deltas.size(); idx++) {
+            Value<?> row = deltas.get(idx);
+            // groups keep the order of their first rows
+            Assertions.assertEquals(PrimitiveValue.newInt32((idx * 7) % 100 - 50), member(row, "category"));
+            Assertions.assertEquals(PrimitiveValue.newUint64(10), member(row, "events"));
+            Assertions.assertEquals(PrimitiveValue.newDouble(5.0), member(row, "price"));
+            total += member(row, "amount").asData().getInt64();
+        }
+        Assertions.assertEquals(999 * 1000 / 2, total);
+    }
+
+    @Test
+    public void compositeGroupTest() {
+        StructType source = StructType.of("region", PrimitiveType.Text, "category", PrimitiveType.Int32,
+                "amount", PrimitiveType.Int64);
+        StructType delta = StructType.of("region", PrimitiveType.Text, "category", PrimitiveType.Int32,
+                "amount", PrimitiveType.Int64);
+        Aggregator aggregator = new Aggregator(source, delta, List.of("region", "category"), null);
+
+        List<Value<?>> rows = List.of(
+                row(source, "eu", 1, 10),
+                row(source, "us", 1, 20),
+                row(source, "eu", 2, 30),
+                row(source, "eu", 1, 40)
+        );
+
+        List<Value<?>> deltas = aggregator.fold(rows);
+        Assertions.assertEquals(List.of(row(delta, "eu", 1, 50), row(delta, "us", 1, 20), row(delta, "eu", 2, 30)),
+                deltas);
+    }
+
+    @Test
+    public void optionalTest() {
+        StructType source = StructType.of("category", PrimitiveType.Int32.makeOptional(),
+                "amount", PrimitiveType.Int64.makeOptional(), "price", PrimitiveType.Double.makeOptional());
+        StructType delta = StructType.of("category", PrimitiveType.Int32.makeOptional(),
+                "amount", PrimitiveType.Int64.makeOptional(), "price", PrimitiveType.Double.makeOptional(),
+                "events", PrimitiveType.Int64);
+        Aggregator aggregator = new Aggregator(source, delta, List.of("category"), "events");
+
+        Value<?> nullCategory = PrimitiveType.Int32.makeOptional().emptyValue();
+        Value<?> nullAmount = PrimitiveType.Int64.makeOptional().emptyValue();
+        Value<?> nullPrice = PrimitiveType.Double.makeOptional().emptyValue();
+        Value<?> category = PrimitiveValue.newInt32(1).makeOptional();
+        List<Value<?>> rows = List.of(
+                source.newValue("category", category, "amount", int64(5).makeOptional(), "price", nullPrice),
+                source.newValue("category", nullCategory, "amount", nullAmount, "price", nullPrice),
+                source.newValue("category", category, "amount", nullAmount,
+                        "price", PrimitiveValue.newDouble(1.5).makeOptional()),
+                source.newValue("category", nullCategory, "amount", int64(7).makeOptional(), "price", nullPrice)
+        );
+
+        List<Value<?>> deltas = aggregator.fold(rows);
+        Assertions.assertEquals(2, deltas.size());
+
+        // null values don't change the sums, null group is a separate group
+        Assertions.assertEquals(category, member(deltas.get(0), "category"));
+        Assertions.assertEquals(int64(5).makeOptional(), member(deltas.get(0), "amount"));
+        Assertions.assertEquals(PrimitiveValue.newDouble(1.5).makeOptional(), member(deltas.get(0), "price"));
+        Assertions.assertEquals(int64(2), member(deltas.get(0), "events"));
+
+        Assertions.assertEquals(nullCategory, member(deltas.get(1), "category"));
+        Assertions.assertEquals(int64(7).makeOptional(), member(deltas.get(1), "amount"));
+        Assertions.assertEquals(PrimitiveValue.newDouble(0).makeOptional(), member(deltas.get(1), "price"));
+        Assertions.assertEquals(int64(2), member(deltas.get(1), "events"));
+    }
+
+    @Test
+    public void uint64Test() {
+        StructType source = StructType.of("user", PrimitiveType.Uint64, "bytes", PrimitiveType.Uint64);
+        StructType delta = StructType.of("user", PrimitiveType.Uint64, "bytes", PrimitiveType.Uint64,
+                "events", PrimitiveType.Uint64);
+        Aggregator aggregator = new Aggregator(source, delta, List.of("user"), "events");
+
+        long big = Long.MIN_VALUE; // 2^63 as unsigned
+        Value<?> bigUser = PrimitiveValue.newUint64(-1L); // 2^64 - 1
+        Value<?> smallUser = PrimitiveValue.newUint64(Long.MAX_VALUE);
+        List<Value<?>> rows = List.of(
+                source.newValue("user", bigUser, "bytes", PrimitiveValue.newUint64(big)),
+                source.newValue("user", smallUser, "bytes", PrimitiveValue.newUint64(1)),
+                source.newValue("user", bigUser, "bytes", PrimitiveValue.newUint64(Long.MAX_VALUE)),
+                source.newValue("user", smallUser, "bytes", PrimitiveValue.newUint64(big + 1))
+        );
+
+        List<Value<?>> deltas = aggregator.fold(rows);
+        Assertions.assertEquals(2, deltas.size());
+        Assertions.assertEquals(bigUser, member(deltas.get(0), "user"));
+        Assertions.assertEquals(PrimitiveValue.newUint64(-1L), member(deltas.get(0), "bytes"));
+        Assertions.assertEquals(smallUser, member(deltas.get(1), "user"));
+        Assertions.assertEquals(PrimitiveValue.newUint64(big + 2), member(deltas.get(1), "bytes"));
+        Assertions.assertEquals(PrimitiveValue.newUint64(2), member(deltas.get(1), "events"));
+    }
+
+    @Test
+    public void emptyBatchTest() {
+        StructType source = StructType.of("category", PrimitiveType.Int64, "amount", PrimitiveType.Int64);
+        Aggregator aggregator = new Aggregator(source, source, List.of("category"), null);
+        Assertions.assertTrue(aggregator.fold(List.of()).isEmpty());
+    }
+
+    @Test
+    public void typesTest() {
+        Assertions.assertTrue(Aggregator.isLong(PrimitiveType.Int64));
+        Assertions.assertTrue(Aggregator.isLong(PrimitiveType.Uint64.makeOptional()));
+        Assertions.assertFalse(Aggregator.isLong(PrimitiveType.Int32));
+        Assertions.assertFalse(Aggregator.isLong(PrimitiveType.Double));
+        Assertions.assertTrue(Aggregator.isInteger(PrimitiveType.Uint8));
+        Assertions.assertFalse(Aggregator.isInteger(PrimitiveType.Text));
+        Assertions.assertTrue(Aggregator.isDouble(PrimitiveType.Float.makeOptional()));
+    }
+
+    private static Value<?> row(StructType type, String region, int category, long amount) {
+        return type.newValue("region", PrimitiveValue.newText(region), "category", PrimitiveValue.newInt32(category),
+                "amount", int64(amount));
+    }
+}
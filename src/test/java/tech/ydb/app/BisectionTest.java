@@ -0,0 +1,117 @@
+package tech.ydb.app;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import tech.ydb.core.Status;
+import tech.ydb.core.StatusCode;
+
+/**
+ *
+ * @author Aleksandr Gorshenin
+ */
+public class BisectionTest {
+    private static final Status ROW_ERROR = Status.of(StatusCode.PRECONDITION_FAILED);
+
+    /**
+     * Table which accepts a range only if it has no bad rows and remembers written rows.
+     */
+    private static class Table implements Bisection.Probe {
+        private final Set<Integer> badRows;
+        private final List<Integer> written = new ArrayList<>();
+        private int executions = 0;
+
+        Table(Set<Integer> badRows) {
+            this.badRows = badRows;
+        }
+
+        @Override
+        public Status execute(int from, int to, BitSet applied) {
+            executions++;
+            for (int row = from; row < to; row++) {
+                if (badRows.contains(row)) {
+                    return ROW_ERROR;
+                }
+            }
+            for (int row = from; row < to; row++) {
+                written.add(row);
+            }
+            return Status.SUCCESS;
+        }
+    }
+
+    @Test
+    public void oneRowTest() throws InterruptedException {
+        Table table = new Table(Set.of(0));
+        Map<Integer, Status> failed = new Bisection(table).isolate(0, 1, new BitSet(), ROW_ERROR);
+
+        Assertions.assertEquals(Map.of(0, ROW_ERROR), failed);
+        Assertions.assertEquals(0, table.executions);
+    }
+
+    @Test
+    public void allRowsBadTest() throws InterruptedException {
+        Table table = new Table(Set.of(0, 1, 2, 3, 4));
+        Map<Integer, Status> failed = new Bisection(table).isolate(0, 5, new BitSet(), ROW_ERROR);
+
+        Assertions.assertEquals(List.of(0, 1, 2, 3, 4), new ArrayList<>(failed.keySet()));
+        Assertions.assertTrue(table.written.isEmpty());
+    }
+
+    @Test
+    public void oneBadRowTest() throws InterruptedException {
+        Table table = new Table(Set.of(13));
+        Map<Integer, Status> failed = new Bisection(table).isolate(10, 20, new BitSet(), ROW_ERROR);
+
+        Assertions.assertEquals(Map.of(13, ROW_ERROR), failed);
+        Assertions.assertEquals(List.of(10, 11, 12, 14, 15, 16, 17, 18, 19), table.written);
+        // every level of the bisection executes two halves
+        Assertions.assertTrue(table.executions <= 2 * 4, "too many executions " + table.executions);
+    }
+
+    @Test
+    public void severalBadRowsTest() throws InterruptedException {
+        Table table = new Table(Set.of(0, 7, 8));
+        Map<Integer, Status> failed = new Bisection(table).isolate(0, 9, new BitSet(), ROW_ERROR);
+
+        Assertions.assertEquals(List.of(0, 7, 8), new ArrayList<>(failed.keySet()));
+        Assertions.assertEquals(List.of(1, 2, 3, 4, 5, 6), table.written);
+    }
+
+    @Test
+    public void errorOfRowTest() throws InterruptedException {
+        Status exists = Status.of(StatusCode.ALREADY_EXISTS);
+        Bisection bisection = new Bisection((from, to, applied) -> from <= 2 && 2 < to ? exists : Status.SUCCESS);
+        Map<Integer, Status> failed = bisection.isolate(0, 4, new BitSet(), ROW_ERROR);
+
+        // the quarantined row keeps the error of its own execution
+        Assertions.assertEquals(Map.of(2, exists), failed);
+    }
+
+    @Test
+    public void appliedPartsTest() throws InterruptedException {
+        BitSet applied = new BitSet();
+        applied.set(0);
+        List<BitSet> probes = new ArrayList<>();
+        Bisection bisection = new Bisection((from, to, parts) -> {
+            probes.add((BitSet) parts.clone());
+            parts.set(1);
+            return from == 0 && to - from > 1 ? ROW_ERROR : Status.SUCCESS;
+        });
+        bisection.isolate(0, 4, applied, ROW_ERROR);
+
+        // every part gets the parts applied to the whole range and its own progress
+        Assertions.assertEquals(4, probes.size());
+        Assertions.assertEquals(BitSet.valueOf(new long[] { 1 }), probes.get(0));
+        Assertions.assertEquals(BitSet.valueOf(new long[] { 3 }), probes.get(1));
+        Assertions.assertEquals(BitSet.valueOf(new long[] { 3 }), probes.get(2));
+        Assertions.assertEquals(BitSet.valueOf(new long[] { 1 }), probes.get(3));
+        Assertions.assertEquals(BitSet.valueOf(new long[] { 1 }), applied);
+    }
+}
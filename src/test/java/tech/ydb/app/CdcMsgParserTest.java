@@ -0,0 +1,113 @@
+package tech.ydb.app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import tech.ydb.table.values.PrimitiveType;
+import tech.ydb.table.values.StructType;
+
+/**
+ *
+ * @author Aleksandr Gorshenin
+ */
+public class CdcMsgParserTest {
+    private static final String ACTION = "UPSERT INTO `view` ";
+
+    private static List<String> statements(String query) {
+        List<String> list = new ArrayList<>();
+        for (int[] statement: CdcMsgParser.splitStatements(query)) {
+            list.add(query.substring(statement[0], statement[1]));
+        }
+        return list;
+    }
+
+    @Test
+    public void splitStatementsTest() {
+        Assertions.assertEquals(List.of(), statements(""));
+        Assertions.assertEquals(List.of(), statements(" ;\n; "));
+        Assertions.assertEquals(List.of("SELECT 1"), statements("SELECT 1"));
+        Assertions.assertEquals(List.of("SELECT 1"), statements("  SELECT 1;  "));
+        Assertions.assertEquals(List.of("DECLARE $rows AS List<Int32>", "SELECT * FROM AS_TABLE($rows)"),
+                statements("DECLARE $rows AS List<Int32>;\n\nSELECT * FROM AS_TABLE($rows);\n"));
+    }
+
+    @Test
+    public void splitQuotedTest() {
+        Assertions.assertEquals(List.of("SELECT ';' AS a", "SELECT \"a;b\""),
+                statements("SELECT ';' AS a; SELECT \"a;b\""));
+        Assertions.assertEquals(List.of("SELECT * FROM `tab;le`"), statements("SELECT * FROM `tab;le`;"));
+        Assertions.assertEquals(List.of("SELECT 'it\\'s;'"), statements("SELECT 'it\\'s;';"));
+        Assertions.assertEquals(List.of("SELECT @@multi;line@@"), statements("SELECT @@multi;line@@;"));
+    }
+
+    @Test
+    public void splitCommentsTest() {
+        Assertions.assertEquals(List.of("SELECT 1"), statements("-- comment; with semicolon\nSELECT 1; -- tail"));
+        Assertions.assertEquals(List.of("SELECT 1"), statements("/* comment; */ SELECT 1 /* ; */;"));
+        Assertions.assertEquals(List.of("SELECT 1"), statements("SELECT 1; /* unclosed ; SELECT 2"));
+    }
+
+    @Test
+    public void combineWithActionTest() {
+        Assertions.assertEquals("UPSERT INTO `view` SELECT 1", CdcMsgParser.combineWithAction("SELECT 1", ACTION));
+        Assertions.assertEquals("UPSERT INTO `view` select 1;", CdcMsgParser.combineWithAction("select 1;", ACTION));
+
+        String query = "DECLARE $rows AS List<Struct<id: Int32>>;\n"
+                + "$data = SELECT id FROM AS_TABLE($rows);\n"
+                + "-- SELECT in comment\n"
+                + "SELECT id FROM $data;";
+        String expected = "DECLARE $rows AS List<Struct<id: Int32>>;\n"
+                + "$data = SELECT id FROM AS_TABLE($rows);\n"
+                + "-- SELECT in comment\n"
+                + "UPSERT INTO `view` SELECT id FROM $data;";
+        Assertions.assertEquals(expected, CdcMsgParser.combineWithAction(query, ACTION));
+    }
+
+    @Test
+    public void plainProjectionTest() {
+        StructType type = StructType.of("id", PrimitiveType.Int64, "name", PrimitiveType.Text);
+        String declare = "DECLARE $rows AS List<Struct<id: Int64, name: Text>>;\n";
+
+        Assertions.assertTrue(CdcMsgParser.isPlainProjection(declare + "SELECT * FROM AS_TABLE($rows);",
+                "$rows", type));
+        Assertions.assertTrue(CdcMsgParser.isPlainProjection(declare + "select name, `id`\nfrom as_table( $rows )",
+                "$rows", type));
+        Assertions.assertTrue(CdcMsgParser.isPlainProjection("-- view\n" + declare + "SELECT * FROM AS_TABLE($rows);",
+                "$rows", type));
+
+        // other parameter
+        Assertions.assertFalse(CdcMsgParser.isPlainProjection(declare + "SELECT * FROM AS_TABLE($rows);", "$r", type));
+        // filter
+        Assertions.assertFalse(CdcMsgParser.isPlainProjection(declare + "SELECT * FROM AS_TABLE($rows) WHERE id > 0;",
+                "$rows", type));
+        // renamed, computed or missed members
+        Assertions.assertFalse(CdcMsgParser.isPlainProjection(declare + "SELECT id, name AS title FROM AS_TABLE($rows)",
+                "$rows", type));
+        Assertions.assertFalse(CdcMsgParser.isPlainProjection(declare + "SELECT id, name || 'x' FROM AS_TABLE($rows)",
+                "$rows", type));
+        Assertions.assertFalse(CdcMsgParser.isPlainProjection(declare + "SELECT id FROM AS_TABLE($rows)",
+                "$rows", type));
+        Assertions.assertFalse(CdcMsgParser.isPlainProjection(declare + "SELECT id, id FROM AS_TABLE($rows)",
+                "$rows", type));
+        // join and other statements
+        Assertions.assertFalse(CdcMsgParser.isPlainProjection(declare
+                + "SELECT r.* FROM AS_TABLE($rows) AS r JOIN users AS u ON u.id = r.id", "$rows", type));
+        Assertions.assertFalse(CdcMsgParser.isPlainProjection(declare + "$x = SELECT * FROM AS_TABLE($rows);"
+                + "SELECT * FROM $x;", "$rows", type));
+        Assertions.assertFalse(CdcMsgParser.isPlainProjection("SELECT * FROM AS_TABLE($rows)", "$rows", type));
+    }
+
+    @Test
+    public void notCombinedActionTest() {
+        // select is not the last statement
+        Assertions.assertNull(CdcMsgParser.combineWithAction("SELECT 1; DISCARD SELECT 2;", ACTION));
+        // several selects
+        Assertions.assertNull(CdcMsgParser.combineWithAction("SELECT 1; SELECT 2;", ACTION));
+        // no selects
+        Assertions.assertNull(CdcMsgParser.combineWithAction("UPSERT INTO t SELECT 1;", ACTION));
+        Assertions.assertNull(CdcMsgParser.combineWithAction("-- SELECT 1", ACTION));
+    }
+}
@@ -0,0 +1,225 @@
+package tech.ydb.app;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import tech.ydb.table.values.DecimalType;
+import tech.ydb.table.values.PrimitiveType;
+import tech.ydb.table.values.StructType;
+
+/**
+ *
+ * @author Aleksandr Gorshenin
+ */
+public class RowFilterTest {
+    private static final List<String> KEYS = List.of("id", "session");
+    private static final StructType KEY_TYPE = StructType.of("id", PrimitiveType.Int64, "session", PrimitiveType.Text);
+
+    private static CdcMsgParser parser(StructType updateType, String filter) {
+        XmlConfig.Cdc cdc = new XmlConfig.Cdc();
+        return new CdcMsgParser(
+                YqlQuery.executeYql("update", KEYS, "$rows", updateType, cdc),
+                YqlQuery.executeYql("delete", KEYS, "$rows", KEY_TYPE, cdc),
+                RowFilter.compile(filter, KEYS)
+        );
+    }
+
+    /**
+     * @return true if the message passes the filter and is added to the batch
+     */
+    private static boolean test(String filter, String json) throws IOException {
+        CdcMsgParser parser = parser(KEY_TYPE, filter);
+        YqlQuery query = parser.parseJsonMessage(bytes(json));
+        boolean filtered = parser.takeFiltered();
+        Assertions.assertEquals(filtered, query == null);
+        return !filtered;
+    }
+
+    private static String update(String values) {
+        return "{\"update\":{" + values + "},\"key\":[10,\"s1\"]}";
+    }
+
+    @Test
+    public void comparisonsTest() throws IOException {
+        String json = update("\"price\":15.5,\"type\":\"purchase\",\"active\":true");
+
+        Assertions.assertTrue(test("price > 10", json));
+        Assertions.assertTrue(test("price >= 15.5", json));
+        Assertions.assertTrue(test("price = 15.50", json));
+        Assertions.assertFalse(test("price < 15.5", json));
+        Assertions.assertFalse(test("price <= 10", json));
+        Assertions.assertTrue(test("price != 10", json));
+        Assertions.assertTrue(test("price <> 10", json));
+
+        Assertions.assertTrue(test("type = 'purchase'", json));
+        Assertions.assertFalse(test("type == 'refund'", json));
+        Assertions.assertTrue(test("active = TRUE", json));
+        Assertions.assertFalse(test("active = false", json));
+        Assertions.assertTrue(test("`type` = 'purchase'", json));
+    }
+
+    @Test
+    public void nullsAndTypesTest() throws IOException {
+        String json = update("\"price\":null,\"type\":\"15\"");
+
+        Assertions.assertTrue(test("price IS NULL", json));
+        Assertions.assertFalse(test("price IS NOT NULL", json));
+        Assertions.assertTrue(test("missed IS NULL", json));
+        Assertions.assertTrue(test("type IS NOT NULL", json));
+
+        // comparison with null or with the value of other type is false
+        Assertions.assertFalse(test("price = 15", json));
+        Assertions.assertFalse(test("price != 15", json));
+        Assertions.assertFalse(test("type = 15", json));
+        Assertions.assertFalse(test("type != 15", json));
+    }
+
+    @Test
+    public void inListTest() throws IOException {
+        String json = update("\"type\":\"refund\",\"price\":3");
+
+        Assertions.assertTrue(test("type IN ('purchase', 'refund')", json));
+        Assertions.assertFalse(test("type NOT IN ('purchase', 'refund')", json));
+        Assertions.assertFalse(test("type IN ('purchase')", json));
+        Assertions.assertTrue(test("type not in ('purchase')", json));
+        Assertions.assertTrue(test("price IN (1, 2, 3.0)", json));
+        Assertions.assertFalse(test("missed IN (1)", json));
+        Assertions.assertFalse(test("missed NOT IN (1)", json));
+    }
+
+    @Test
+    public void logicalOperatorsTest() throws IOException {
+        String json = update("\"type\":\"refund\",\"price\":3");
+
+        Assertions.assertTrue(test("type = 'refund' AND price < 5", json));
+        Assertions.assertFalse(test("type = 'refund' AND price > 5", json));
+        Assertions.assertTrue(test("type = 'purchase' OR price < 5", json));
+        Assertions.assertTrue(test("NOT type = 'purchase'", json));
+        // AND has priority over OR
+        Assertions.assertTrue(test("price < 5 OR type = 'purchase' AND price > 5", json));
+        Assertions.assertFalse(test("(price < 5 OR type = 'purchase') AND price > 5", json));
+        Assertions.assertTrue(test("NOT (type = 'purchase' OR price > 5)", json));
+    }
+
+    @Test
+    public void stringLiteralsTest() throws IOException {
+        Assertions.assertTrue(test("name = 'it''s'", update("\"name\":\"it's\"")));
+        Assertions.assertTrue(test("name = ''", update("\"name\":\"\"")));
+        Assertions.assertTrue(test("name = 'a AND b'", update("\"name\":\"a AND b\"")));
+    }
+
+    @Test
+    public void keyColumnsTest() throws IOException {
+        String json = update("\"price\":3");
+
+        Assertions.assertTrue(test("id = 10 AND session = 's1'", json));
+        Assertions.assertFalse(test("session = 's2'", json));
+        Assertions.assertTrue(RowFilter.compile("id = 10", KEYS).hasKeyColumns());
+        Assertions.assertFalse(RowFilter.compile("price = 10", KEYS).hasKeyColumns());
+    }
+
+    @Test
+    public void newImageTest() throws IOException {
+        String json = "{\"key\":[1,\"s\"],\"newImage\":{\"price\":20},\"oldImage\":{\"price\":1}}";
+
+        Assertions.assertTrue(test("price = 20", json));
+        Assertions.assertFalse(test("price = 1", json));
+    }
+
+    @Test
+    public void erasesTest() throws IOException {
+        String json = "{\"erase\":{},\"key\":[10,\"s1\"]}";
+
+        // erases don't have values, so only filter by the key can drop them
+        Assertions.assertTrue(test("price > 10", json));
+        Assertions.assertTrue(test("id = 10 AND price > 10", json));
+        Assertions.assertTrue(test("id = 10", json));
+        Assertions.assertFalse(test("id = 11", json));
+    }
+
+    @Test
+    public void columnsTest() {
+        RowFilter filter = RowFilter.compile("a = 1 AND (b IS NULL OR a IN (2, 3)) AND NOT `c d` > 0", KEYS);
+        Assertions.assertEquals(Set.of("a", "b", "c d"), filter.getColumns());
+        Assertions.assertEquals(-1, filter.getColumn("d"));
+        Assertions.assertEquals(-1, filter.getKeyColumn(0));
+        Assertions.assertEquals(-1, filter.getKeyColumn(5));
+    }
+
+    @Test
+    public void invalidFiltersTest() {
+        assertInvalid("", "Unexpected end of filter ");
+        assertInvalid("price >", "Unexpected end of filter price >");
+        assertInvalid("price ~ 10", "Unexpected char ~ in filter price ~ 10");
+        assertInvalid("price = 'abc", "Unclosed string in filter price = 'abc");
+        assertInvalid("`price = 10", "Unclosed column name in filter `price = 10");
+        assertInvalid("price = 10 10", "Unexpected token 10 in filter price = 10 10");
+        assertInvalid("price NOT 10", "Expected IN after NOT in filter price NOT 10");
+        assertInvalid("price IS 10", "Expected NULL instead of 10 in filter price IS 10");
+        assertInvalid("price IN 10", "Expected ( instead of 10 in filter price IN 10");
+        assertInvalid("(price = 10", "Expected ) instead of null in filter (price = 10");
+        assertInvalid("10 = price", "Expected column name instead of 10 in filter 10 = price");
+        assertInvalid("price = other", "Expected literal instead of other in filter price = other");
+        assertInvalid("price => 10", "Unknown operator => in filter price => 10");
+    }
+
+    @Test
+    public void parserFilterTest() throws IOException {
+        StructType updateType = StructType.of("id", PrimitiveType.Int64, "session", PrimitiveType.Text,
+                "price", PrimitiveType.Int32);
+        CdcMsgParser parser = parser(updateType, "price > 10 AND session != 's2'");
+        YqlQuery updates = parser.getQueries().get(0);
+        YqlQuery deletes = parser.getQueries().get(1);
+
+        Assertions.assertSame(updates,
+                parser.parseJsonMessage(bytes("{\"update\":{\"price\":11},\"key\":[1,\"s1\"]}")));
+        Assertions.assertFalse(parser.takeFiltered());
+
+        Assertions.assertNull(parser.parseJsonMessage(bytes("{\"update\":{\"price\":10},\"key\":[2,\"s1\"]}")));
+        Assertions.assertTrue(parser.takeFiltered());
+        Assertions.assertFalse(parser.takeFiltered());
+
+        Assertions.assertNull(parser.parseJsonMessage(bytes("{\"key\":[3,\"s2\"],\"update\":{\"price\":20}}")));
+        Assertions.assertTrue(parser.takeFiltered());
+
+        Assertions.assertSame(deletes, parser.parseJsonMessage(bytes("{\"erase\":{},\"key\":[4,\"s2\"]}")));
+        Assertions.assertFalse(parser.takeFiltered());
+
+        Assertions.assertEquals(1, updates.batchSize());
+        Assertions.assertEquals(1, deletes.batchSize());
+    }
+
+    @Test
+    public void droppedValuesAreNotBuiltTest() throws IOException {
+        StructType updateType = StructType.of("id", PrimitiveType.Int64, "session", PrimitiveType.Text,
+                "price", PrimitiveType.Int32, "amount", DecimalType.getDefault());
+        CdcMsgParser parser = parser(updateType, "price > 10");
+
+        // amount is not a valid decimal, but the message is dropped before its value is read
+        String dropped = "{\"update\":{\"amount\":\"abc\",\"price\":5},\"key\":[1,\"s\"]}";
+        Assertions.assertNull(parser.parseJsonMessage(bytes(dropped)));
+        Assertions.assertTrue(parser.takeFiltered());
+
+        String passed = "{\"update\":{\"amount\":\"abc\",\"price\":15},\"key\":[1,\"s\"]}";
+        Assertions.assertThrows(NumberFormatException.class, () -> parser.parseJsonMessage(bytes(passed)));
+
+        String valid = "{\"update\":{\"amount\":7,\"price\":15},\"key\":[1,\"s\"]}";
+        Assertions.assertNotNull(parser.parseJsonMessage(bytes(valid)));
+        Assertions.assertEquals(1, parser.getQueries().get(0).batchSize());
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void assertInvalid(String filter, String message) {
+        IllegalArgumentException ex = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> RowFilter.compile(filter, KEYS));
+        Assertions.assertEquals(message, ex.getMessage());
+    }
+}